@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.runtime.CoreException;
+import org.jsweet.plugin.builder.JSweetBuilder.BuildingContext;
+import org.jsweet.plugin.builder.JSweetBuilder.IncrementalGrabJavaFileVisitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the incremental build of a change in a base class: the delta is
+ * visited, the changed file is indexed again, and its dependents (its
+ * subclasses and the classes using it) are looked up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DependencyExpansionBenchmark {
+
+	@Param({ "1000", "10000", "50000" })
+	public int files;
+
+	private SyntheticWorkspace workspace;
+	private JSweetBuilder builder;
+	private BuildingContext context;
+	private IResourceDelta delta;
+	private File changedFile;
+	private int changes = 0;
+
+	@Setup
+	public void setUp() throws IOException, CoreException {
+		workspace = new SyntheticWorkspace(files);
+		workspace.writeSources();
+		builder = new JSweetBuilder();
+		context = workspace.createContext(SyntheticWorkspace.createConfig());
+		// indexes all the files, as after a full build
+		IncrementalGrabJavaFileVisitor visitor = builder.new IncrementalGrabJavaFileVisitor(context);
+		workspace.createDelta(IResourceDelta.ADDED, 0, workspace.sourceFiles).accept(visitor);
+		for (File file : visitor.javaFiles) {
+			context.sourceFiles.put(file, Collections.<File> emptyList());
+		}
+		IFile changed = workspace.sourceFiles.get(0);
+		changedFile = workspace.toFile(changed);
+		delta = workspace.createDelta(IResourceDelta.CHANGED, IResourceDelta.CONTENT,
+				Collections.singletonList(changed));
+	}
+
+	@Setup(Level.Invocation)
+	public void changeFile() throws IOException {
+		// the length changes so that the file is indexed again
+		String source = workspace.getSource(0) + ((changes++ % 2) == 0 ? "\n" : "");
+		Files.write(changedFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@TearDown
+	public void tearDown() {
+		workspace.dispose();
+	}
+
+	@Benchmark
+	public Set<File> expand() throws CoreException {
+		IncrementalGrabJavaFileVisitor visitor = builder.new IncrementalGrabJavaFileVisitor(context);
+		delta.accept(visitor);
+		visitor.grabDependents();
+		return visitor.javaFiles;
+	}
+
+}
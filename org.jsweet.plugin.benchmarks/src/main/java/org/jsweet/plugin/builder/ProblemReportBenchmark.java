@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.jsweet.plugin.builder.JSweetBuilder.BuildingContext;
+import org.jsweet.plugin.builder.JSweetBuilder.JSweetTranspilationHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the reporting of one problem per source file and the creation of
+ * the corresponding markers by a full build. With the <code>keep</code>
+ * markers mode, the markers of the previous build are still there (and are
+ * kept), as when rebuilding a project whose problems were not fixed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ProblemReportBenchmark {
+
+	@Param({ "1000", "10000", "50000" })
+	public int files;
+
+	@Param({ "create", "keep" })
+	public String markers;
+
+	private SyntheticWorkspace workspace;
+	private BuildingContext context;
+	private JSweetTranspilationHandler handler;
+	private final List<File> javaFiles = new ArrayList<>();
+
+	@Setup
+	public void setUp() throws IOException {
+		workspace = new SyntheticWorkspace(files);
+		JSweetBuilder builder = new JSweetBuilder();
+		context = workspace.createContext(SyntheticWorkspace.createConfig());
+		handler = builder.new JSweetTranspilationHandler(context);
+		for (IFile file : workspace.sourceFiles) {
+			javaFiles.add(workspace.toFile(file));
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void resetMarkers() {
+		if ("create".equals(markers)) {
+			workspace.clearMarkers();
+		}
+		context.problems.clear();
+	}
+
+	@TearDown
+	public void tearDown() {
+		workspace.dispose();
+	}
+
+	@Benchmark
+	public int report() throws CoreException {
+		for (int i = 0; i < javaFiles.size(); i++) {
+			handler.report(IMarker.SEVERITY_ERROR, "cannot transpile C" + i, javaFiles.get(i), 3, 20, 30);
+		}
+		ProblemMarkers.update(workspace.project, true, Collections.<IResource> emptyList(), context.problems,
+				null);
+		return workspace.getMarkerCount();
+	}
+
+}
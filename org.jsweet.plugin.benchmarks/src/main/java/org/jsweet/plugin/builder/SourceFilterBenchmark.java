@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+import org.jsweet.plugin.builder.JSweetBuilder.BuildingContext;
+import org.jsweet.plugin.preferences.Preferences;
+import org.jsweet.plugin.preferences.ProfileConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the include/exclude filtering of all the source files of a
+ * project, with no filters, regular expression filters and glob filters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SourceFilterBenchmark {
+
+	@Param({ "1000", "10000", "50000" })
+	public int files;
+
+	@Param({ "none", "regex", "glob" })
+	public String filter;
+
+	private SyntheticWorkspace workspace;
+	private BuildingContext context;
+	private final List<IPath> paths = new ArrayList<>();
+
+	@Setup
+	public void setUp() throws IOException {
+		workspace = new SyntheticWorkspace(files);
+		ProfileConfig config;
+		switch (filter) {
+		case "regex":
+			config = SyntheticWorkspace.createConfig(Preferences.SOURCE_INCLUDE_FILTER(null), "p[0-9]+/.*\\.java",
+					Preferences.SOURCE_EXCLUDE_FILTER(null), ".*/C[0-9]*9\\.java");
+			break;
+		case "glob":
+			config = SyntheticWorkspace.createConfig(Preferences.SOURCE_INCLUDE_FILTER(null), "glob:p*/*.java",
+					Preferences.SOURCE_EXCLUDE_FILTER(null), "glob:**/C*9.java");
+			break;
+		default:
+			config = SyntheticWorkspace.createConfig();
+		}
+		context = workspace.createContext(config);
+		// the paths are relative to the source folder
+		for (IFile file : workspace.sourceFiles) {
+			paths.add(file.getProjectRelativePath().removeFirstSegments(1));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		workspace.dispose();
+	}
+
+	@Benchmark
+	public int filter() {
+		int included = 0;
+		for (IPath path : paths) {
+			if (JSweetBuilder.isIncluded(context, path)) {
+				included++;
+			}
+		}
+		return included;
+	}
+
+}
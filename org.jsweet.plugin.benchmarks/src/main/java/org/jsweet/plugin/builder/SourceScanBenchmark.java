@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.CoreException;
+import org.jsweet.plugin.builder.JSweetBuilder.BuildingContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the lookup of the source files of a project, as done by full
+ * builds (see {@link JSweetBuilder#scanSourceFiles}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SourceScanBenchmark {
+
+	@Param({ "1000", "10000", "50000" })
+	public int files;
+
+	private SyntheticWorkspace workspace;
+	private JSweetBuilder builder;
+	private BuildingContext context;
+
+	@Setup
+	public void setUp() throws IOException {
+		workspace = new SyntheticWorkspace(files);
+		builder = new JSweetBuilder();
+		context = workspace.createContext(SyntheticWorkspace.createConfig());
+	}
+
+	@TearDown
+	public void tearDown() {
+		workspace.dispose();
+	}
+
+	@Benchmark
+	public List<File> scan() throws CoreException {
+		return builder.scanSourceFiles(context);
+	}
+
+}
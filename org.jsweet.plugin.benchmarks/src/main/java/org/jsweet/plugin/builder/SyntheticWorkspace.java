@@ -0,0 +1,704 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.IResourceVisitor;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.jsweet.plugin.preferences.Preferences;
+import org.jsweet.plugin.preferences.ProfileConfig;
+import org.jsweet.plugin.preferences.ProjectConfig;
+
+/**
+ * An in-memory workspace holding one project of generated Java sources, for
+ * benchmarking the builder outside of Eclipse.
+ * <p>
+ * Resources, markers and deltas are lightweight dynamic proxies that only
+ * implement what the builder uses (other methods throw
+ * {@link UnsupportedOperationException}). The project is laid out as
+ * follows:
+ * <ul>
+ * <li><code>src/p&lt;k&gt;/C&lt;i&gt;.java</code>: the sources, 100 per
+ * package; all the classes of a package extend its first class, and each
+ * class uses two classes of other packages,</li>
+ * <li><code>bin/p&lt;k&gt;/C&lt;i&gt;.class</code>: the compiled classes,
+ * which the builder should not visit.</li>
+ * </ul>
+ * Files only exist on disk once written (see {@link #writeSources()} and
+ * {@link #writeOutputs(JSweetBuilder.BuildingContext)}).
+ */
+public class SyntheticWorkspace {
+
+	public static final String PROJECT_NAME = "benchmark";
+
+	public static final int FILES_PER_PACKAGE = 100;
+
+	public final File location;
+	public final int fileCount;
+
+	public final IWorkspace workspace;
+	public final IWorkspaceRoot root;
+	public final IProject project;
+	/** The Java source files, in creation order. */
+	public final List<IFile> sourceFiles = new ArrayList<>();
+
+	private final Node rootNode;
+	private final Node projectNode;
+	private final AtomicLong markerIds = new AtomicLong();
+
+	/**
+	 * Creates a workspace with the given number of source files, located in
+	 * a new temporary directory.
+	 */
+	public SyntheticWorkspace(int fileCount) throws IOException {
+		this.fileCount = fileCount;
+		this.location = Files.createTempDirectory("jsweet-benchmark").toFile();
+		this.workspace = (IWorkspace) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { IWorkspace.class }, new WorkspaceHandler());
+		this.rootNode = new Node(null, "", IResource.ROOT);
+		this.root = (IWorkspaceRoot) rootNode.resource;
+		this.projectNode = rootNode.getOrCreate(PROJECT_NAME, IResource.PROJECT);
+		this.project = (IProject) projectNode.resource;
+		for (int i = 0; i < fileCount; i++) {
+			String packageName = "p" + (i / FILES_PER_PACKAGE);
+			Node sourceFile = projectNode.create(new Path("src/" + packageName + "/C" + i + ".java"));
+			sourceFiles.add((IFile) sourceFile.resource);
+			projectNode.create(new Path("bin/" + packageName + "/C" + i + ".class"));
+		}
+	}
+
+	/**
+	 * Gets the source of the i-th class.
+	 */
+	public String getSource(int i) {
+		int base = i - i % FILES_PER_PACKAGE;
+		int first = (i * 7 + 13) % fileCount;
+		int second = (i * 31 + 1) % fileCount;
+		StringBuilder source = new StringBuilder();
+		source.append("package p").append(i / FILES_PER_PACKAGE).append(";\n\n");
+		source.append("public class C").append(i);
+		if (i != base) {
+			source.append(" extends C").append(base);
+		}
+		source.append(" {\n");
+		source.append("\tprotected p").append(first / FILES_PER_PACKAGE).append(".C").append(first)
+				.append(" first;\n");
+		source.append("\tprotected p").append(second / FILES_PER_PACKAGE).append(".C").append(second)
+				.append(" second;\n");
+		source.append("\tpublic int value() {\n\t\treturn ").append(i).append(";\n\t}\n");
+		source.append("}\n");
+		return source.toString();
+	}
+
+	/**
+	 * Gets the file of the given resource in the file system.
+	 */
+	public File toFile(IResource resource) {
+		return resource.getLocation().toFile();
+	}
+
+	/**
+	 * Writes the Java sources to the disk.
+	 */
+	public void writeSources() throws IOException {
+		for (int i = 0; i < fileCount; i++) {
+			writeFile(toFile(sourceFiles.get(i)), getSource(i));
+		}
+	}
+
+	/**
+	 * Writes the TypeScript and JavaScript outputs of all the sources to the
+	 * output folders of the given context's configuration, and registers
+	 * them in the context (and its output manifest, if any).
+	 */
+	public void writeOutputs(JSweetBuilder.BuildingContext context) throws IOException {
+		File tsOutputFolder = new File(location, context.config.getTsOutputFolder());
+		File jsOutputFolder = new File(location, context.config.getJsOutputFolder());
+		for (int i = 0; i < fileCount; i++) {
+			String path = "p" + (i / FILES_PER_PACKAGE) + "/C" + i;
+			List<File> outputs = Arrays.asList(new File(tsOutputFolder, path + ".ts"),
+					new File(jsOutputFolder, path + ".js"), new File(jsOutputFolder, path + ".js.map"));
+			writeFile(outputs.get(0), "class C" + i + " {}\n");
+			writeFile(outputs.get(1), "var C" + i + " = (function () {})();\n");
+			writeFile(outputs.get(2), "{}\n");
+			context.sourceFiles.put(toFile(sourceFiles.get(i)), outputs);
+		}
+		context.sourceFiles.save();
+	}
+
+	private static void writeFile(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Deletes the workspace files from the disk.
+	 */
+	public void dispose() {
+		FileUtils.deleteQuietly(location);
+	}
+
+	/**
+	 * Creates a profile configuration with the default preferences, overridden
+	 * by the given preferences (preference name -&gt; value, see the
+	 * {@link Preferences} name accessors).
+	 */
+	public static ProfileConfig createConfig(String... preferences) {
+		Map<String, String> values = new HashMap<>();
+		values.put(Preferences.SOURCE_FOLDERS(null), "src");
+		values.put(Preferences.TS_OUTPUT_FOLDER(null), ".generated");
+		values.put(Preferences.JS_OUTPUT_FOLDER(null), "js");
+		for (int i = 0; i < preferences.length; i += 2) {
+			values.put(preferences[i], preferences[i + 1]);
+		}
+		return ProfileConfig.load(null, values::get);
+	}
+
+	/**
+	 * Creates a building context for the given configuration, as it is
+	 * initialized by a full build.
+	 */
+	public JSweetBuilder.BuildingContext createContext(ProfileConfig config) {
+		return createContext(config, null);
+	}
+
+	/**
+	 * Creates a building context for the given configuration, as it is
+	 * initialized by a full build, which records its outputs in the given
+	 * manifest file (none if null).
+	 */
+	public JSweetBuilder.BuildingContext createContext(ProfileConfig config, File manifestFile) {
+		JSweetBuilder.BuildingContext context = new JSweetBuilder.BuildingContext(project, null, config,
+				manifestFile);
+		context.settings = config;
+		context.projectConfig = ProjectConfig.load(ProfileConfig.getDefaultValues()::get);
+		for (String name : config.getSourceFolders().split("[,;]")) {
+			context.sourceDirs.add(project.getFolder(name).getFullPath());
+		}
+		context.sourceFilter = SourceFilter.compile(config.getSourceIncludeFilter(),
+				config.getSourceExcludeFilter());
+		return context;
+	}
+
+	/**
+	 * Creates a delta of the given kind for the given files, with the given
+	 * flags (for changed files).
+	 */
+	public IResourceDelta createDelta(int kind, int flags, List<IFile> files) {
+		Delta projectDelta = new Delta(projectNode, IResourceDelta.CHANGED, 0);
+		for (IFile file : files) {
+			Delta parent = projectDelta;
+			IPath path = file.getProjectRelativePath();
+			Node node = projectNode;
+			for (int i = 0; i < path.segmentCount(); i++) {
+				node = node.children.get(path.segment(i));
+				Delta child = parent.children.get(node.name);
+				if (child == null) {
+					boolean leaf = i == path.segmentCount() - 1;
+					child = new Delta(node, leaf ? kind : IResourceDelta.CHANGED, leaf ? flags : 0);
+					parent.children.put(node.name, child);
+				}
+				parent = child;
+			}
+		}
+		return projectDelta.delta;
+	}
+
+	/**
+	 * Gets the number of markers in the project.
+	 */
+	public int getMarkerCount() {
+		return projectNode.countMarkers();
+	}
+
+	/**
+	 * Removes all the markers.
+	 */
+	public void clearMarkers() {
+		projectNode.clearMarkers();
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static UnsupportedOperationException unsupported(Method method) {
+		return new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + "." + method.getName());
+	}
+
+	private class WorkspaceHandler implements InvocationHandler {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "getRoot":
+				return root;
+			case "run":
+				// runs the operation (a workspace runnable or core runnable)
+				// immediately, without batching
+				Object runnable = args[0];
+				return SyntheticWorkspace.invoke(runnable,
+						runnable.getClass().getMethod("run", IProgressMonitor.class), new Object[] { args[3] });
+			case "deleteMarkers":
+				for (IMarker marker : (IMarker[]) args[0]) {
+					((Marker) Proxy.getInvocationHandler(marker)).delete();
+				}
+				return null;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "SyntheticWorkspace[" + location + "]";
+			default:
+				throw unsupported(method);
+			}
+		}
+	}
+
+	/**
+	 * A resource, whose proxy is created with the interface of its type.
+	 */
+	private class Node implements InvocationHandler {
+		final Node parent;
+		final String name;
+		final int type;
+		final IPath fullPath;
+		final Map<String, Node> children;
+		final IResource resource;
+		List<IMarker> markers;
+
+		Node(Node parent, String name, int type) {
+			this.parent = parent;
+			this.name = name;
+			this.type = type;
+			this.fullPath = parent == null ? Path.ROOT : parent.fullPath.append(name);
+			this.children = type == IResource.FILE ? null : new LinkedHashMap<String, Node>();
+			Class<?> resourceInterface;
+			switch (type) {
+			case IResource.FILE:
+				resourceInterface = IFile.class;
+				break;
+			case IResource.FOLDER:
+				resourceInterface = IFolder.class;
+				break;
+			case IResource.PROJECT:
+				resourceInterface = IProject.class;
+				break;
+			default:
+				resourceInterface = IWorkspaceRoot.class;
+			}
+			this.resource = (IResource) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { resourceInterface }, this);
+		}
+
+		Node getOrCreate(String name, int type) {
+			Node child = children.get(name);
+			if (child == null) {
+				child = new Node(this, name, type);
+				children.put(name, child);
+			}
+			return child;
+		}
+
+		Node create(IPath path) {
+			Node node = this;
+			for (int i = 0; i < path.segmentCount(); i++) {
+				node = node.getOrCreate(path.segment(i),
+						i == path.segmentCount() - 1 ? IResource.FILE : IResource.FOLDER);
+			}
+			return node;
+		}
+
+		Node find(IPath path) {
+			Node node = this;
+			for (int i = 0; node != null && i < path.segmentCount(); i++) {
+				node = node.children == null ? null : node.children.get(path.segment(i));
+			}
+			return node;
+		}
+
+		Node findForLocation(IPath location) {
+			IPath projectLocation = new Path(SyntheticWorkspace.this.location.getAbsolutePath());
+			if (!projectLocation.isPrefixOf(location)) {
+				return null;
+			}
+			return projectNode.find(location.makeRelativeTo(projectLocation));
+		}
+
+		IPath getProjectRelativePath() {
+			return type == IResource.ROOT ? Path.EMPTY : fullPath.removeFirstSegments(1);
+		}
+
+		void accept(IResourceVisitor visitor, int depth) throws Throwable {
+			if (visitor.visit(resource) && depth != IResource.DEPTH_ZERO && children != null) {
+				for (Node child : children.values()) {
+					child.accept(visitor, depth == IResource.DEPTH_ONE ? IResource.DEPTH_ZERO : depth);
+				}
+			}
+		}
+
+		void accept(IResourceProxyVisitor visitor) throws Throwable {
+			IResourceProxy resourceProxy = (IResourceProxy) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { IResourceProxy.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							switch (method.getName()) {
+							case "getName":
+								return name;
+							case "getType":
+								return type;
+							case "isAccessible":
+							case "exists":
+								return true;
+							case "isDerived":
+							case "isHidden":
+							case "isTeamPrivateMember":
+							case "isPhantom":
+								return false;
+							case "requestResource":
+								return resource;
+							case "requestFullPath":
+								return fullPath;
+							default:
+								throw unsupported(method);
+							}
+						}
+					});
+			if (visitor.visit(resourceProxy) && children != null) {
+				for (Node child : children.values()) {
+					child.accept(visitor);
+				}
+			}
+		}
+
+		List<IMarker> findMarkers(String markerType, int depth) {
+			List<IMarker> result = new ArrayList<>();
+			if (markers != null) {
+				for (IMarker marker : markers) {
+					if (markerType == null || markerType.equals(((Marker) Proxy.getInvocationHandler(marker)).type)) {
+						result.add(marker);
+					}
+				}
+			}
+			if (depth != IResource.DEPTH_ZERO && children != null) {
+				for (Node child : children.values()) {
+					result.addAll(child.findMarkers(markerType,
+							depth == IResource.DEPTH_ONE ? IResource.DEPTH_ZERO : depth));
+				}
+			}
+			return result;
+		}
+
+		int countMarkers() {
+			int count = markers == null ? 0 : markers.size();
+			if (children != null) {
+				for (Node child : children.values()) {
+					count += child.countMarkers();
+				}
+			}
+			return count;
+		}
+
+		void clearMarkers() {
+			markers = null;
+			if (children != null) {
+				for (Node child : children.values()) {
+					child.clearMarkers();
+				}
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "getType":
+				return type;
+			case "getName":
+				return name;
+			case "getFullPath":
+				return fullPath;
+			case "getProjectRelativePath":
+				return getProjectRelativePath();
+			case "getLocation":
+			case "getRawLocation":
+				return new Path(location.getAbsolutePath()).append(getProjectRelativePath());
+			case "getProject":
+				// IWorkspaceRoot.getProject(String) or IResource.getProject()
+				return type == IResource.ROOT && args == null ? null : projectNode.resource;
+			case "getParent":
+				return parent == null ? null : parent.resource;
+			case "getWorkspace":
+				return workspace;
+			case "exists":
+			case "isAccessible":
+			case "isOpen":
+				return true;
+			case "isNatureEnabled":
+			case "hasNature":
+			case "isDerived":
+			case "isHidden":
+			case "isTeamPrivateMember":
+			case "isPhantom":
+				return false;
+			case "getDefaultCharset":
+			case "getCharset":
+				return StandardCharsets.UTF_8.name();
+			case "accept":
+				if (args[0] instanceof IResourceProxyVisitor) {
+					accept((IResourceProxyVisitor) args[0]);
+				} else {
+					accept((IResourceVisitor) args[0],
+							args.length == 1 ? IResource.DEPTH_INFINITE : (Integer) args[1]);
+				}
+				return null;
+			case "members":
+				List<IResource> members = new ArrayList<>();
+				for (Node child : children.values()) {
+					members.add(child.resource);
+				}
+				return members.toArray(new IResource[members.size()]);
+			case "findMember": {
+				Node member = find(args[0] instanceof IPath ? (IPath) args[0] : new Path((String) args[0]));
+				return member == null ? null : member.resource;
+			}
+			case "getFile":
+				return create(args[0] instanceof IPath ? (IPath) args[0] : new Path((String) args[0])).resource;
+			case "getFolder": {
+				IPath path = args[0] instanceof IPath ? (IPath) args[0] : new Path((String) args[0]);
+				Node folder = this;
+				for (int i = 0; i < path.segmentCount(); i++) {
+					folder = folder.getOrCreate(path.segment(i), IResource.FOLDER);
+				}
+				return folder.resource;
+			}
+			case "getProjects":
+				return new IProject[] { (IProject) projectNode.resource };
+			case "getFileForLocation":
+			case "getContainerForLocation": {
+				Node node = findForLocation((IPath) args[0]);
+				return node == null ? null : node.resource;
+			}
+			case "createMarker": {
+				IMarker marker = new Marker(this, (String) args[0]).marker;
+				if (markers == null) {
+					markers = new ArrayList<>();
+				}
+				markers.add(marker);
+				return marker;
+			}
+			case "findMarkers": {
+				List<IMarker> found = findMarkers((String) args[0], (Integer) args[2]);
+				return found.toArray(new IMarker[found.size()]);
+			}
+			case "deleteMarkers":
+				for (IMarker marker : findMarkers((String) args[0], (Integer) args[2])) {
+					((Marker) Proxy.getInvocationHandler(marker)).delete();
+				}
+				return null;
+			case "refreshLocal":
+				return null;
+			case "getAdapter":
+				return null;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return fullPath.hashCode();
+			case "toString":
+				return (type == IResource.FILE ? "L" : type == IResource.FOLDER ? "F" : "P") + fullPath;
+			default:
+				throw unsupported(method);
+			}
+		}
+	}
+
+	private class Marker implements InvocationHandler {
+		final long id = markerIds.incrementAndGet();
+		final Node node;
+		final String type;
+		final Map<String, Object> attributes = new HashMap<>();
+		final IMarker marker;
+
+		Marker(Node node, String type) {
+			this.node = node;
+			this.type = type;
+			this.marker = (IMarker) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { IMarker.class }, this);
+		}
+
+		void delete() {
+			if (node.markers != null) {
+				node.markers.remove(marker);
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "getId":
+				return id;
+			case "getType":
+				return type;
+			case "getResource":
+				return node.resource;
+			case "exists":
+				return node.markers != null && node.markers.contains(marker);
+			case "getAttribute":
+				if (args.length == 1) {
+					return attributes.get(args[0]);
+				}
+				Object value = attributes.get(args[0]);
+				return value == null ? args[1] : value;
+			case "getAttributes":
+				if (args == null) {
+					return new HashMap<>(attributes);
+				}
+				String[] names = (String[]) args[0];
+				Object[] values = new Object[names.length];
+				for (int i = 0; i < names.length; i++) {
+					values[i] = attributes.get(names[i]);
+				}
+				return values;
+			case "setAttribute":
+				attributes.put((String) args[0], args[1]);
+				return null;
+			case "setAttributes":
+				if (args.length == 1) {
+					attributes.clear();
+					@SuppressWarnings("unchecked")
+					Map<String, Object> map = (Map<String, Object>) args[0];
+					attributes.putAll(map);
+				} else {
+					String[] attributeNames = (String[]) args[0];
+					Object[] attributeValues = (Object[]) args[1];
+					for (int i = 0; i < attributeNames.length; i++) {
+						if (attributeValues[i] == null) {
+							attributes.remove(attributeNames[i]);
+						} else {
+							attributes.put(attributeNames[i], attributeValues[i]);
+						}
+					}
+				}
+				return null;
+			case "delete":
+				delete();
+				return null;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return Long.hashCode(id);
+			case "toString":
+				return "Marker[" + id + ", " + type + ", " + attributes + "]";
+			default:
+				throw unsupported(method);
+			}
+		}
+	}
+
+	private class Delta implements InvocationHandler {
+		final Node node;
+		final int kind;
+		final int flags;
+		final Map<String, Delta> children = new LinkedHashMap<>();
+		final IResourceDelta delta;
+
+		Delta(Node node, int kind, int flags) {
+			this.node = node;
+			this.kind = kind;
+			this.flags = flags;
+			this.delta = (IResourceDelta) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { IResourceDelta.class }, this);
+		}
+
+		void accept(IResourceDeltaVisitor visitor) throws Throwable {
+			if (visitor.visit(delta)) {
+				for (Delta child : children.values()) {
+					child.accept(visitor);
+				}
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "getResource":
+				return node.resource;
+			case "getKind":
+				return kind;
+			case "getFlags":
+				return flags;
+			case "getFullPath":
+				return node.fullPath;
+			case "getProjectRelativePath":
+				return node.getProjectRelativePath();
+			case "getAffectedChildren":
+				List<IResourceDelta> affected = new ArrayList<>();
+				for (Delta child : children.values()) {
+					affected.add(child.delta);
+				}
+				return affected.toArray(new IResourceDelta[affected.size()]);
+			case "accept":
+				accept((IResourceDeltaVisitor) args[0]);
+				return null;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Delta[" + node.fullPath + ", " + kind + "]";
+			default:
+				throw unsupported(method);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SyntheticWorkspace[" + fileCount + " files, " + location + "]";
+	}
+}
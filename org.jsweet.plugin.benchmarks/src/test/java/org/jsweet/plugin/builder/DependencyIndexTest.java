@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DependencyIndexTest {
+
+	private static final Charset CHARSET = StandardCharsets.UTF_8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private DependencyIndex index;
+
+	@Before
+	public void setUp() {
+		index = new DependencyIndex();
+	}
+
+	private File createFile(String name, String source) throws IOException {
+		File file = folder.newFile(name + ".java");
+		Files.write(file.toPath(), source.getBytes(CHARSET));
+		index.update(file, CHARSET);
+		return file;
+	}
+
+	@Test
+	public void groupsTypeHierarchies() throws IOException {
+		File a = createFile("A", "class A {}");
+		File d = createFile("D", "class D { A a; }");
+		File b = createFile("B", "class B extends A {}");
+		File e = createFile("E", "class E {}");
+		File c = createFile("C", "class C extends B {}");
+		List<List<File>> groups = index.getHierarchyGroups(asList(a, d, b, e, c));
+		assertEquals(asList(asList(a, b, c), singletonList(d), singletonList(e)), groups);
+	}
+
+	@Test
+	public void groupsInterfaceImplementations() throws IOException {
+		File f = createFile("F", "class F implements java.io.Serializable, I<String> {}");
+		File g = createFile("G", "class G {}");
+		File i = createFile("I", "interface I<T> {}");
+		File j = createFile("J", "interface J extends I<Object> {}");
+		List<List<File>> groups = index.getHierarchyGroups(asList(f, g, i, j));
+		assertEquals(asList(asList(f, i, j), singletonList(g)), groups);
+	}
+
+	@Test
+	public void groupsOnlyThroughGivenFiles() throws IOException {
+		File a = createFile("A", "class A {}");
+		createFile("B", "class B extends A {}");
+		File c = createFile("C", "class C extends B {}");
+		List<List<File>> groups = index.getHierarchyGroups(asList(a, c));
+		assertEquals(asList(singletonList(a), singletonList(c)), groups);
+	}
+
+	@Test
+	public void groupsTypesOfUnindexedFilesAlone() throws IOException {
+		File a = createFile("A", "class A {}");
+		File x = new File(folder.getRoot(), "X.java");
+		assertEquals(asList(singletonList(a), singletonList(x)), index.getHierarchyGroups(asList(a, x)));
+	}
+
+	@Test
+	public void getDependentsIncludesTransitiveSubtypes() throws IOException {
+		createFile("A", "class A {}");
+		File b = createFile("B", "class B extends A {}");
+		File c = createFile("C", "class C extends B {}");
+		File d = createFile("D", "class D { A a; }");
+		File e = createFile("E", "class E { B b; }");
+		createFile("F", "class F {}");
+		assertEquals(new HashSet<>(asList(b, c, d, e)), index.getDependents(singleton("A")));
+	}
+
+	@Test
+	public void getDependentsIncludesTransitiveSupertypes() throws IOException {
+		File a = createFile("A", "class A {}");
+		File i = createFile("I", "interface I {}");
+		File b = createFile("B", "class B extends A implements I {}");
+		File c = createFile("C", "class C extends B {}");
+		File e = createFile("E", "class E { B b; }");
+		createFile("F", "class F { A a; }");
+		assertEquals(new HashSet<>(asList(a, i, b)), index.getDependents(singleton("C")));
+		assertEquals(new HashSet<>(asList(a, i, c, e)), index.getDependents(singleton("B")));
+	}
+
+	@Test
+	public void getDependentsOfSubtypeUsers() throws IOException {
+		createFile("A", "class A {}");
+		File b = createFile("B", "class B extends A {}");
+		File u = createFile("U", "class U { void m() { new B(); } }");
+		assertEquals(new HashSet<>(asList(b, u)), index.getDependents(singleton("A")));
+	}
+
+	@Test
+	public void getDependenciesIncludesTransitiveSupertypes() throws IOException {
+		File a = createFile("A", "class A {}");
+		File b = createFile("B", "class B extends A {}");
+		createFile("C", "class C extends B {}");
+		File d = createFile("D", "class D { B b; }");
+		assertEquals(new HashSet<>(asList(b, a)), index.getDependencies(d));
+		assertTrue(index.getDependencies(a).isEmpty());
+	}
+
+	@Test
+	public void removedFilesHaveNoDependents() throws IOException {
+		createFile("A", "class A {}");
+		File b = createFile("B", "class B extends A {}");
+		File d = createFile("D", "class D { A a; }");
+		assertEquals(singleton("B"), index.remove(b));
+		assertEquals(singleton(d), index.getDependents(singleton("A")));
+		assertEquals(Collections.emptySet(), index.remove(b));
+	}
+
+}
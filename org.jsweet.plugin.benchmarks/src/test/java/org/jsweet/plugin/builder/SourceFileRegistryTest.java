@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SourceFileRegistryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dir;
+
+	private File manifestFile;
+
+	@Before
+	public void setUp() {
+		dir = folder.getRoot();
+		manifestFile = file("state/outputs.manifest");
+	}
+
+	private File file(String path) {
+		return new File(dir, path);
+	}
+
+	private List<String> readManifest() throws IOException {
+		return Files.readAllLines(manifestFile.toPath(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void manifestRoundTrip() throws IOException {
+		SourceFileRegistry registry = new SourceFileRegistry(dir, manifestFile);
+		assertFalse(registry.hasManifest());
+		registry.put(file("src/a/A.java"), asList(file(".generated/a/A.ts"), file("js/a/A.js"), file("js/a/A.js.map")));
+		registry.put(file("src/B.java"), Collections.<File> emptyList());
+		registry.setSharedOutputs(asList(file("js/bundle.js"), file("js/bundle.js.map")));
+		registry.save();
+		assertTrue(registry.hasManifest());
+		assertFalse(new File(manifestFile.getPath() + ".tmp").exists());
+
+		List<String> lines = readManifest();
+		assertTrue(lines.get(0).startsWith("#"));
+		assertTrue(lines.contains("src/a/A.java\t.generated/a/A.ts\tjs/a/A.js\tjs/a/A.js.map"));
+		assertTrue(lines.contains("src/B.java"));
+		assertTrue(lines.contains("\tjs/bundle.js\tjs/bundle.js.map"));
+		assertEquals(4, lines.size());
+
+		SourceFileRegistry loaded = new SourceFileRegistry(dir, manifestFile);
+		assertEquals(2, loaded.size());
+		assertEquals(new HashSet<>(registry.getJavaFiles()), new HashSet<>(loaded.getJavaFiles()));
+		assertEquals(new HashSet<>(registry.getOutputFiles()), new HashSet<>(loaded.getOutputFiles()));
+		assertEquals(asList(file(".generated/a/A.ts"), file("js/a/A.js"), file("js/a/A.js.map")),
+				loaded.remove(file("src/a/A.java")));
+		assertEquals(Collections.emptyList(), loaded.remove(file("src/B.java")));
+		assertEquals(asList(file("js/bundle.js"), file("js/bundle.js.map")), loaded.getOutputFiles());
+	}
+
+	@Test
+	public void absoluteOutputsOutsideBaseDir() throws IOException {
+		File outside = file("out/A.js").getAbsoluteFile();
+		SourceFileRegistry registry = new SourceFileRegistry(file("project"), manifestFile);
+		registry.put(file("project/src/A.java"), asList(outside));
+		registry.save();
+		assertTrue(readManifest().contains("src/A.java\t" + outside.getPath()));
+		assertEquals(asList(outside), new SourceFileRegistry(file("project"), manifestFile).getOutputFiles());
+	}
+
+	@Test
+	public void savesOnlyWhenModified() throws IOException {
+		SourceFileRegistry registry = new SourceFileRegistry(dir, manifestFile);
+		registry.put(file("src/A.java"), asList(file("js/A.js")));
+		registry.save();
+		FileUtils.write(manifestFile, "# unchanged\n", StandardCharsets.UTF_8);
+		registry.save();
+		// replacing the shared outputs with the same ones is not a change
+		registry.setSharedOutputs(Collections.<File> emptyList());
+		registry.save();
+		assertEquals(asList("# unchanged"), readManifest());
+
+		registry.remove(file("src/A.java"));
+		registry.save();
+		assertEquals(1, readManifest().size());
+		assertFalse(readManifest().get(0).equals("# unchanged"));
+	}
+
+	@Test
+	public void retainAllReturnsOutputsOfDroppedSources() {
+		SourceFileRegistry registry = new SourceFileRegistry(dir);
+		registry.put(file("src/A.java"), asList(file("js/A.js"), file("js/A.js.map")));
+		registry.put(file("src/B.java"), asList(file("js/B.js")));
+		assertEquals(asList(file("js/A.js"), file("js/A.js.map")), registry.retainAll(asList(file("src/B.java"))));
+		assertFalse(registry.contains(file("src/A.java")));
+		assertTrue(registry.contains(file("src/B.java")));
+		assertNull(registry.remove(file("src/A.java")));
+	}
+
+	@Test
+	public void setSharedOutputsReplacesThem() throws IOException {
+		SourceFileRegistry registry = new SourceFileRegistry(dir, manifestFile);
+		registry.setSharedOutputs(asList(file("js/bundle.js"), file("js/bundle.d.ts")));
+		registry.setSharedOutputs(asList(file("js/bundle.js")));
+		registry.save();
+		assertEquals(asList(file("js/bundle.js")), new SourceFileRegistry(dir, manifestFile).getOutputFiles());
+	}
+
+	@Test
+	public void clearEmptiesTheManifest() throws IOException {
+		SourceFileRegistry registry = new SourceFileRegistry(dir, manifestFile);
+		registry.put(file("src/A.java"), asList(file("js/A.js")));
+		registry.addSharedOutputs(asList(file("js/bundle.js")));
+		registry.save();
+		registry.clear();
+		registry.save();
+		assertTrue(registry.hasManifest());
+		SourceFileRegistry loaded = new SourceFileRegistry(dir, manifestFile);
+		assertEquals(0, loaded.size());
+		assertTrue(loaded.getOutputFiles().isEmpty());
+	}
+
+	@Test
+	public void noManifestWithoutFile() {
+		SourceFileRegistry registry = new SourceFileRegistry(dir);
+		registry.put(file("src/A.java"), asList(file("js/A.js")));
+		registry.save();
+		assertFalse(registry.hasManifest());
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SourceFilterTest {
+
+	@Test
+	public void blankFiltersIncludeAll() {
+		SourceFilter filter = SourceFilter.compile(null, " ");
+		assertTrue(filter.isIncluded("A.java"));
+		assertTrue(filter.isIncluded("org/jsweet/A.java"));
+		assertTrue(filter.mayIncludeUnder("org"));
+	}
+
+	@Test
+	public void regexInclude() {
+		SourceFilter filter = SourceFilter.compile("org/jsweet/.*", null);
+		assertTrue(filter.isIncluded("org/jsweet/A.java"));
+		assertTrue(filter.isIncluded("org/jsweet/util/A.java"));
+		assertFalse(filter.isIncluded("org/A.java"));
+		assertFalse(filter.isIncluded("com/jsweet/A.java"));
+	}
+
+	@Test
+	public void regexExclude() {
+		SourceFilter filter = SourceFilter.compile("regex:org/.*", ".*Test\\.java");
+		assertTrue(filter.isIncluded("org/jsweet/A.java"));
+		assertFalse(filter.isIncluded("org/jsweet/ATest.java"));
+		assertFalse(filter.isIncluded("com/jsweet/A.java"));
+	}
+
+	@Test
+	public void globInclude() {
+		SourceFilter filter = SourceFilter.compile("glob:org/jsweet/**.java", null);
+		assertTrue(filter.isIncluded("org/jsweet/A.java"));
+		assertTrue(filter.isIncluded("org/jsweet/util/A.java"));
+		assertFalse(filter.isIncluded("org/jsweet/A.ts"));
+		assertFalse(filter.isIncluded("com/jsweet/A.java"));
+	}
+
+	@Test
+	public void globExclude() {
+		SourceFilter filter = SourceFilter.compile(null, "glob:**/internal/*.java");
+		assertTrue(filter.isIncluded("org/jsweet/A.java"));
+		assertTrue(filter.isIncluded("org/jsweet/internal/impl/A.java"));
+		assertFalse(filter.isIncluded("org/jsweet/internal/A.java"));
+	}
+
+	@Test
+	public void regexPrunesFolders() {
+		SourceFilter filter = SourceFilter.compile("org/jsweet/.*", null);
+		assertTrue(filter.mayIncludeUnder("org"));
+		assertTrue(filter.mayIncludeUnder("org/jsweet"));
+		assertTrue(filter.mayIncludeUnder("org/jsweet/util"));
+		assertFalse(filter.mayIncludeUnder("com"));
+		assertFalse(filter.mayIncludeUnder("org/other"));
+	}
+
+	@Test
+	public void globPrunesFolders() {
+		SourceFilter filter = SourceFilter.compile("glob:org/jsweet/**", null);
+		assertTrue(filter.mayIncludeUnder("org"));
+		assertTrue(filter.mayIncludeUnder("org/jsweet"));
+		assertTrue(filter.mayIncludeUnder("org/jsweet/util"));
+		assertFalse(filter.mayIncludeUnder("com"));
+		assertFalse(filter.mayIncludeUnder("org/other"));
+	}
+
+	@Test
+	public void globWithLeadingWildcardDoesNotPrune() {
+		SourceFilter filter = SourceFilter.compile("glob:**/api/*.java", null);
+		assertTrue(filter.mayIncludeUnder("com"));
+		assertTrue(filter.mayIncludeUnder("org/jsweet"));
+	}
+
+	@Test
+	public void excludeDoesNotPruneFolders() {
+		SourceFilter filter = SourceFilter.compile(null, "org/.*");
+		assertFalse(filter.isIncluded("org/jsweet/A.java"));
+		assertTrue(filter.mayIncludeUnder("org"));
+	}
+
+	@Test
+	public void noneIncludesNothing() {
+		assertFalse(SourceFilter.NONE.isIncluded("A.java"));
+		assertFalse(SourceFilter.NONE.mayIncludeUnder("org"));
+		assertFalse(SourceFilter.NONE.isCompiledFrom(null, null));
+	}
+
+	@Test
+	public void isCompiledFrom() {
+		SourceFilter filter = SourceFilter.compile("glob:**", "org/.*");
+		assertTrue(filter.isCompiledFrom("glob:**", "org/.*"));
+		assertFalse(filter.isCompiledFrom("glob:**", null));
+		assertFalse(filter.isCompiledFrom(null, "org/.*"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidRegex() {
+		SourceFilter.compile("org/(", null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidGlob() {
+		SourceFilter.compile(null, "glob:org/[");
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TranspileBatchesTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File createFile(String name, int length) throws IOException {
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), new byte[length]);
+		return file;
+	}
+
+	private List<List<File>> createGroups(int... sizes) throws IOException {
+		List<List<File>> groups = new ArrayList<>();
+		int count = 0;
+		for (int size : sizes) {
+			List<File> group = new ArrayList<>();
+			for (int i = 0; i < size; i++) {
+				group.add(createFile("C" + count++ + ".java", 100));
+			}
+			groups.add(group);
+		}
+		return groups;
+	}
+
+	@Test
+	public void noGroups() {
+		assertTrue(TranspileBatches.split(Collections.<List<File>> emptyList(), 10, Long.MAX_VALUE).isEmpty());
+	}
+
+	@Test
+	public void packsGroupsUpToMaxFiles() throws IOException {
+		List<List<File>> groups = createGroups(1, 1, 1, 1, 1);
+		List<List<File>> batches = TranspileBatches.split(groups, 2, Long.MAX_VALUE);
+		assertEquals(asList(asList(groups.get(0).get(0), groups.get(1).get(0)),
+				asList(groups.get(2).get(0), groups.get(3).get(0)), singletonList(groups.get(4).get(0))), batches);
+	}
+
+	@Test
+	public void doesNotSplitGroups() throws IOException {
+		List<List<File>> groups = createGroups(2, 3, 1);
+		List<List<File>> batches = TranspileBatches.split(groups, 4, Long.MAX_VALUE);
+		List<File> second = new ArrayList<>(groups.get(1));
+		second.addAll(groups.get(2));
+		assertEquals(asList(groups.get(0), second), batches);
+	}
+
+	@Test
+	public void largeGroupMakesItsOwnBatch() throws IOException {
+		List<List<File>> groups = createGroups(1, 5, 1);
+		List<List<File>> batches = TranspileBatches.split(groups, 2, Long.MAX_VALUE);
+		assertEquals(groups, batches);
+	}
+
+	@Test
+	public void packsGroupsUpToMaxHeap() throws IOException {
+		List<List<File>> groups = createGroups(1, 1, 1, 1, 1);
+		long fileHeap = TranspileBatches.estimateHeap(groups.get(0).get(0));
+		assertEquals(100L * TranspileBatches.HEAP_PER_SOURCE_BYTE, fileHeap);
+		List<List<File>> batches = TranspileBatches.split(groups, 100, 2 * fileHeap + fileHeap / 2);
+		assertEquals(3, batches.size());
+		assertEquals(2, batches.get(0).size());
+		assertEquals(2, batches.get(1).size());
+		assertEquals(1, batches.get(2).size());
+	}
+
+	@Test
+	public void heapLimitIsInclusive() throws IOException {
+		List<List<File>> groups = createGroups(1, 1, 1);
+		long fileHeap = TranspileBatches.estimateHeap(groups.get(0).get(0));
+		assertEquals(2, TranspileBatches.split(groups, 100, 2 * fileHeap).size());
+	}
+
+	@Test
+	public void keepsFileOrder() throws IOException {
+		List<List<File>> groups = createGroups(2, 2, 2);
+		List<File> files = new ArrayList<>();
+		for (List<File> group : groups) {
+			files.addAll(group);
+		}
+		List<File> batched = new ArrayList<>();
+		for (List<File> batch : TranspileBatches.split(groups, 3, Long.MAX_VALUE)) {
+			batched.addAll(batch);
+		}
+		assertEquals(files, batched);
+	}
+
+}
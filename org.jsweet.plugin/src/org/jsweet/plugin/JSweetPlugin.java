@@ -1,7 +1,17 @@
 package org.jsweet.plugin;
 
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
+import org.jsweet.plugin.builder.AutoBuildDebouncer;
+import org.jsweet.plugin.builder.CandyCache;
+import org.jsweet.plugin.builder.ClassPathCache;
+import org.jsweet.plugin.builder.JSweetBuilder;
+import org.jsweet.plugin.builder.OutputCache;
+import org.jsweet.plugin.builder.TscWatchService;
 import org.osgi.framework.BundleContext;
 
 /**
@@ -14,6 +24,16 @@ public class JSweetPlugin extends AbstractUIPlugin {
 
 	// The shared instance
 	private static JSweetPlugin plugin;
+
+	private OutputCache outputCache;
+
+	private CandyCache candyCache;
+
+	private final ClassPathCache classPathCache = new ClassPathCache();
+
+	private final TscWatchService tscWatchService = new TscWatchService();
+
+	private final AutoBuildDebouncer autoBuildDebouncer = new AutoBuildDebouncer();
 	
 	/**
 	 * The constructor
@@ -28,6 +48,9 @@ public class JSweetPlugin extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		JavaCore.addElementChangedListener(classPathCache, ElementChangedEvent.POST_CHANGE);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(autoBuildDebouncer,
+				IResourceChangeEvent.POST_CHANGE | IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
 	}
 
 	/*
@@ -35,6 +58,12 @@ public class JSweetPlugin extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		JavaCore.removeElementChangedListener(classPathCache);
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(autoBuildDebouncer);
+		autoBuildDebouncer.cancelAll();
+		tscWatchService.stopAll();
+		JSweetBuilder.shutdownProfileExecutors();
+		Log.flush();
 		plugin = null;
 		super.stop(context);
 	}
@@ -48,6 +77,59 @@ public class JSweetPlugin extends AbstractUIPlugin {
 		return plugin;
 	}
 
+	/**
+	 * Returns the workspace cache of the files generated by the builder
+	 *
+	 * @return the output cache
+	 */
+	public synchronized OutputCache getOutputCache() {
+		if (outputCache == null) {
+			outputCache = new OutputCache(getStateLocation().append("outputs").toFile());
+		}
+		return outputCache;
+	}
+
+	/**
+	 * Returns the workspace cache of the candy extractions, shared by the
+	 * projects
+	 *
+	 * @return the candy cache
+	 */
+	public synchronized CandyCache getCandyCache() {
+		if (candyCache == null) {
+			candyCache = new CandyCache(getStateLocation().append("candies").toFile());
+		}
+		return candyCache;
+	}
+
+	/**
+	 * Returns the cache of the resolved class paths of the workspace projects
+	 *
+	 * @return the class path cache
+	 */
+	public ClassPathCache getClassPathCache() {
+		return classPathCache;
+	}
+
+	/**
+	 * Returns the service owning the TypeScript compilers kept running between
+	 * builds
+	 *
+	 * @return the tsc watch service
+	 */
+	public TscWatchService getTscWatchService() {
+		return tscWatchService;
+	}
+
+	/**
+	 * Returns the debouncer of the auto-builds of the JSweet projects
+	 *
+	 * @return the auto-build debouncer
+	 */
+	public AutoBuildDebouncer getAutoBuildDebouncer() {
+		return autoBuildDebouncer;
+	}
+
 	/**
 	 * Returns an image descriptor for the image file at the given
 	 * plug-in relative path
@@ -15,42 +15,282 @@
  */
 package org.jsweet.plugin;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
 import org.eclipse.core.runtime.Status;
 
+/**
+ * The plugin logger.
+ * <p>
+ * Log records are kept in an in-memory ring buffer (see
+ * {@link #getRecentRecords()}), and a background thread forwards the most
+ * severe ones to the platform log (warnings and errors by default). Messages
+ * can be given as suppliers, which are only evaluated when the level is
+ * enabled for the message category.
+ * <p>
+ * Levels are configured with the following system properties:
+ * <ul>
+ * <li><code>org.jsweet.plugin.log.level</code>: the default level
+ * (<code>INFO</code> by default),</li>
+ * <li><code>org.jsweet.plugin.log.level.&lt;category&gt;</code>: the level of
+ * a category (for instance <code>org.jsweet.plugin.log.level.files=TRACE</code>
+ * ),</li>
+ * <li><code>org.jsweet.plugin.log.platformLevel</code>: the level from which
+ * records are forwarded to the platform log (<code>WARNING</code> by
+ * default),</li>
+ * <li><code>org.jsweet.plugin.log.bufferSize</code>: the number of records
+ * kept in the ring buffer (1000 by default).</li>
+ * </ul>
+ */
 public class Log {
 
+	private static final String PROPERTY_PREFIX = "org.jsweet.plugin.log.";
+
+	public enum Level {
+		TRACE(Status.INFO), DEBUG(Status.INFO), INFO(Status.INFO), WARNING(Status.WARNING), ERROR(Status.ERROR), OFF(
+				Status.ERROR);
+
+		private final int severity;
+
+		private Level(int severity) {
+			this.severity = severity;
+		}
+
+		private static Level fromSeverity(int severity) {
+			return severity == Status.ERROR ? ERROR : severity == Status.WARNING ? WARNING : INFO;
+		}
+
+		private static Level parse(String value, Level defaultLevel) {
+			try {
+				return value == null ? defaultLevel : valueOf(value.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				return defaultLevel;
+			}
+		}
+	}
+
+	public enum Category {
+		/** Messages without a specific category. */
+		GENERAL,
+		/** Build steps and builder state. */
+		BUILD,
+		/** Per source file decisions (high volume). */
+		FILES,
+		/** Transpiler creation and invocations. */
+		TRANSPILER,
+		/** Workspace updates: markers, refreshes, class path. */
+		WORKSPACE,
+		/** Output cache and dependency index. */
+		CACHE;
+
+		private final Level level = Level.parse(System.getProperty(PROPERTY_PREFIX + "level." + name().toLowerCase()),
+				Level.parse(System.getProperty(PROPERTY_PREFIX + "level"), Level.INFO));
+	}
+
+	/**
+	 * A log record.
+	 */
+	public static class Record {
+		public final long time;
+		public final Level level;
+		public final Category category;
+		public final String thread;
+		public final String message;
+		public final Throwable throwable;
+
+		private Record(Level level, Category category, String message, Throwable throwable) {
+			this.time = System.currentTimeMillis();
+			this.level = level;
+			this.category = category;
+			this.thread = Thread.currentThread().getName();
+			this.message = message;
+			this.throwable = throwable;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%tT.%<tL %-7s [%s] %s: %s", time, level, thread, category, message);
+		}
+	}
+
+	private static final Level PLATFORM_LEVEL = Level.parse(System.getProperty(PROPERTY_PREFIX + "platformLevel"),
+			Level.WARNING);
+
+	private static final Record[] buffer = new Record[Math.max(16,
+			Integer.getInteger(PROPERTY_PREFIX + "bufferSize", 1000))];
+
+	// guarded by buffer: total number of records written to the buffer,
+	// number of records examined by the writer, and number of records to be
+	// forwarded
+	private static long written = 0;
+	private static long forwarded = 0;
+	private static int pending = 0;
+	private static Thread writer;
+
 	private Log() {
 	}
 
+	/**
+	 * Tells if records of the given level are logged for the given category.
+	 */
+	public static boolean isEnabled(Category category, Level level) {
+		return level != Level.OFF && level.compareTo(category.level) >= 0;
+	}
+
+	public static void trace(Category category, Supplier<String> msg) {
+		log(Level.TRACE, category, msg);
+	}
+
+	public static void debug(Category category, Supplier<String> msg) {
+		log(Level.DEBUG, category, msg);
+	}
+
+	public static void info(Category category, Supplier<String> msg) {
+		log(Level.INFO, category, msg);
+	}
+
+	public static void info(Category category, String msg) {
+		log(Level.INFO, category, msg, null);
+	}
+
 	public static void info(String msg) {
-		log(Status.INFO, msg, null);
+		log(Level.INFO, Category.GENERAL, msg, null);
 	}
 
 	public static void error(String msg, Throwable t) {
-		log(Status.ERROR, msg, t);
+		log(Level.ERROR, Category.GENERAL, msg, t);
 	}
 
 	public static void error(Throwable t) {
-		log(Status.ERROR, t.getMessage(), t);
+		log(Level.ERROR, Category.GENERAL, t.getMessage(), t);
 	}
 
 	public static void error(String msg) {
-		log(Status.ERROR, msg, null);
+		log(Level.ERROR, Category.GENERAL, msg, null);
 	}
 
 	public static void warning(String msg, Throwable t) {
-		log(Status.WARNING, msg, t);
+		log(Level.WARNING, Category.GENERAL, msg, t);
 	}
 
 	public static void warning(Throwable t) {
-		log(Status.WARNING, t.getMessage(), t);
+		log(Level.WARNING, Category.GENERAL, t.getMessage(), t);
 	}
 
 	public static void warning(String msg) {
-		log(Status.WARNING, msg, null);
+		log(Level.WARNING, Category.GENERAL, msg, null);
 	}
 
 	public static void log(int severity, String msg, Throwable t) {
-		JSweetPlugin.getDefault().getLog().log(new Status(severity, JSweetPlugin.ID, Status.OK, msg, t));
+		log(Level.fromSeverity(severity), Category.GENERAL, msg, t);
+	}
+
+	public static void log(Level level, Category category, Supplier<String> msg) {
+		if (isEnabled(category, level)) {
+			log(level, category, msg.get(), null);
+		}
+	}
+
+	public static void log(Level level, Category category, String msg, Throwable t) {
+		if (!isEnabled(category, level)) {
+			return;
+		}
+		Record record = new Record(level, category, msg, t);
+		synchronized (buffer) {
+			buffer[(int) (written++ % buffer.length)] = record;
+			if (level.compareTo(PLATFORM_LEVEL) >= 0) {
+				pending++;
+				if (writer == null) {
+					writer = new Thread(Log::forwardRecords, "JSweet log writer");
+					writer.setDaemon(true);
+					writer.start();
+				}
+				buffer.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Gets the records that are still in the ring buffer, oldest first.
+	 */
+	public static List<Record> getRecentRecords() {
+		synchronized (buffer) {
+			List<Record> records = new ArrayList<>();
+			for (long i = Math.max(0, written - buffer.length); i < written; i++) {
+				records.add(buffer[(int) (i % buffer.length)]);
+			}
+			return records;
+		}
+	}
+
+	/**
+	 * Forwards the pending records to the platform log, in the calling
+	 * thread.
+	 */
+	public static void flush() {
+		forward(takePendingRecords());
+	}
+
+	private static List<Record> takePendingRecords() {
+		synchronized (buffer) {
+			List<Record> records = new ArrayList<>();
+			for (long i = Math.max(forwarded, written - buffer.length); i < written; i++) {
+				Record record = buffer[(int) (i % buffer.length)];
+				if (record.level.compareTo(PLATFORM_LEVEL) >= 0) {
+					records.add(record);
+				}
+			}
+			if (pending > records.size()) {
+				records.add(0, new Record(Level.WARNING, Category.GENERAL,
+						(pending - records.size()) + " log record(s) were overwritten before being forwarded", null));
+			}
+			forwarded = written;
+			pending = 0;
+			return records;
+		}
+	}
+
+	private static JSweetPlugin getPlugin() {
+		try {
+			return JSweetPlugin.getDefault();
+		} catch (LinkageError e) {
+			// the platform classes are not available (headless builder)
+			return null;
+		}
+	}
+
+	private static void forwardRecords() {
+		while (true) {
+			synchronized (buffer) {
+				while (pending == 0) {
+					try {
+						buffer.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			forward(takePendingRecords());
+		}
+	}
+
+	private static void forward(List<Record> records) {
+		JSweetPlugin plugin = getPlugin();
+		for (Record record : records) {
+			if (plugin == null) {
+				// not running in the platform (or plugin stopped)
+				System.err.println(record);
+				if (record.throwable != null) {
+					record.throwable.printStackTrace();
+				}
+			} else {
+				plugin.getLog().log(new Status(record.level.severity, JSweetPlugin.ID, Status.OK,
+						record.category == Category.GENERAL ? record.message
+								: "[" + record.category + "] " + record.message,
+						record.throwable));
+			}
+		}
 	}
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.jsweet.plugin.Log;
+import org.jsweet.plugin.Log.Category;
+
+/**
+ * Debounces the auto-builds of the JSweet projects.
+ * <p>
+ * On an auto-build, the builder does not build but requests a build from
+ * this debouncer (see {@link #request(IProject, long, long)}). The build
+ * runs in a job once no change happened to the project for the debounce
+ * delay, or at the latest when the first pending change is older than the
+ * maximum staleness, so that a burst of saves is built once. A running
+ * debounced build is cancelled (superseded) when the Java sources of its
+ * project change again, and the following auto-build requests a new build,
+ * which includes the changes of the cancelled one. The debouncer must be
+ * registered as a (post change, pre close and pre delete) resource change
+ * listener, so that it also forgets the projects that are closed or deleted.
+ */
+public class AutoBuildDebouncer implements IResourceChangeListener {
+
+	private static class BuildJob extends Job {
+		final IProject project;
+		// the time of the first request not built yet (0 if none)
+		long pendingSince = 0;
+
+		BuildJob(IProject project) {
+			super("JSweet: building " + project.getName());
+			this.project = project;
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			synchronized (this) {
+				pendingSince = 0;
+			}
+			try {
+				project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, JSweetBuilder.ID, null, monitor);
+				return Status.OK_STATUS;
+			} catch (CoreException e) {
+				return e.getStatus();
+			}
+		}
+	}
+
+	private final Map<IProject, BuildJob> jobs = new HashMap<>();
+
+	/**
+	 * Requests a build of the given project.
+	 *
+	 * @param project
+	 *            the project to be built
+	 * @param delay
+	 *            the time (in milliseconds) without new requests to wait for
+	 *            before building
+	 * @param maxStaleness
+	 *            the maximum time (in milliseconds) a request can wait for
+	 */
+	public void request(IProject project, long delay, long maxStaleness) {
+		BuildJob job;
+		synchronized (jobs) {
+			job = jobs.get(project);
+			if (job == null) {
+				job = new BuildJob(project);
+				jobs.put(project, job);
+			}
+		}
+		synchronized (job) {
+			long now = System.currentTimeMillis();
+			if (job.pendingSince == 0) {
+				job.pendingSince = now;
+			}
+			long wait = Math.max(0, Math.min(delay, job.pendingSince + maxStaleness - now));
+			Log.debug(Category.BUILD, () -> "debouncing build of " + project.getName());
+			// a waiting build is postponed, a running one is superseded (and
+			// scheduled again once cancelled)
+			job.cancel();
+			job.schedule(wait);
+		}
+	}
+
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		if (event.getType() == IResourceChangeEvent.PRE_CLOSE
+				|| event.getType() == IResourceChangeEvent.PRE_DELETE) {
+			synchronized (jobs) {
+				BuildJob job = jobs.remove(event.getResource());
+				if (job != null) {
+					job.cancel();
+				}
+			}
+			return;
+		}
+		IResourceDelta delta = event.getDelta();
+		if (delta == null) {
+			return;
+		}
+		synchronized (jobs) {
+			for (BuildJob job : jobs.values()) {
+				if (job.getState() == Job.RUNNING) {
+					IResourceDelta projectDelta = delta.findMember(job.project.getFullPath());
+					if (projectDelta != null && hasSourceChanges(projectDelta)) {
+						Log.info(Category.BUILD, () -> "superseding build of " + job.project.getName());
+						job.cancel();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tells if the given delta adds, removes or changes the contents of Java
+	 * source files (derived resources, such as generated files, are
+	 * ignored).
+	 */
+	static boolean hasSourceChanges(IResourceDelta delta) {
+		final boolean[] result = { false };
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+				@Override
+				public boolean visit(IResourceDelta delta) throws CoreException {
+					IResource resource = delta.getResource();
+					if (resource.isDerived()) {
+						return false;
+					}
+					if (resource.getType() == IResource.FILE && resource.getName().endsWith(".java")
+							&& (delta.getKind() != IResourceDelta.CHANGED
+									|| (delta.getFlags() & IResourceDelta.CONTENT) != 0)) {
+						result[0] = true;
+					}
+					return !result[0];
+				}
+			});
+		} catch (CoreException e) {
+			Log.error(e);
+		}
+		return result[0];
+	}
+
+	/**
+	 * Cancels all the pending builds (when the plugin stops).
+	 */
+	public void cancelAll() {
+		synchronized (jobs) {
+			for (BuildJob job : jobs.values()) {
+				job.cancel();
+			}
+			jobs.clear();
+		}
+	}
+
+}
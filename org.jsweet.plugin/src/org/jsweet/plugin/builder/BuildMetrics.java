@@ -0,0 +1,449 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A registry of the metrics of the last builds: for each built project and
+ * profile, the time spent in each build phase, the memory allocated by the
+ * threads that ran it, the number of processed files, and the slowest source
+ * files.
+ * <p>
+ * Phase times are exclusive: when a phase is started while another one is
+ * running in the same thread (for instance the refresh of the generated
+ * files, which happens during the transpilation), the time of the nested
+ * phase is not counted in the enclosing one. Phases run by other threads
+ * (such as the refresh done by the tsc process reader in watch mode) do not
+ * nest: they are timed on their own and may overlap the running phases.
+ */
+public class BuildMetrics {
+
+	private static final int MAX_RECORDS = 200;
+
+	private static final int SLOWEST_FILES = 20;
+
+	private static final BuildMetrics INSTANCE = new BuildMetrics();
+
+	public enum Phase {
+		SCAN_SOURCES("source scanning"), DEPENDENCY_INDEX("dependency indexing"), RESOLVE_CLASSPATH(
+				"class path resolution"), INIT_CLASSPATH("class path initialization"), CREATE_TRANSPILER(
+						"transpiler creation"), CANDY_CACHE("candy cache"), OUTPUT_CACHE("output cache"), TRANSPILE(
+								"transpilation (javac and tsc)"), REFRESH("refresh"), MARKERS("problem markers");
+
+		public final String label;
+
+		private Phase(String label) {
+			this.label = label;
+		}
+	}
+
+	/**
+	 * The metrics of a phase in a build.
+	 */
+	public static class PhaseMetrics {
+		private long nanos;
+		private long allocatedBytes;
+		private int fileCount;
+		private int count;
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Gets the bytes allocated by the threads that ran the phase, or -1 if
+		 * the JVM cannot measure it.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		public int getFileCount() {
+			return fileCount;
+		}
+
+		/**
+		 * Gets how many times the phase was run during the build.
+		 */
+		public int getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * The time spent on a source file in a phase.
+	 */
+	public static class FileMetrics {
+		public final String path;
+		public final Phase phase;
+		public final long nanos;
+
+		public FileMetrics(String path, Phase phase, long nanos) {
+			this.path = path;
+			this.phase = phase;
+			this.nanos = nanos;
+		}
+	}
+
+	/**
+	 * The metrics of a build of a profile (or of a project-level step of the
+	 * build when the profile is null).
+	 */
+	public static class BuildRecord {
+		public final String project;
+		public final String profile;
+		public final long startTime = System.currentTimeMillis();
+		private final long startNanos = System.nanoTime();
+		private String kind = "incremental";
+		private long totalNanos = -1;
+		private final Map<Phase, PhaseMetrics> phases = new EnumMap<>(Phase.class);
+		private final PriorityQueue<FileMetrics> slowestFiles = new PriorityQueue<>(
+				Comparator.comparingLong(f -> f.nanos));
+		// the running timers of each thread, innermost first
+		private final Map<Thread, Deque<Timer>> runningTimers = new HashMap<>();
+
+		private BuildRecord(String project, String profile) {
+			this.project = project;
+			this.profile = profile;
+		}
+
+		/**
+		 * Starts timing a phase in the current thread. The returned timer must
+		 * be closed at the end of the phase, in the same thread.
+		 */
+		public Timer startPhase(Phase phase) {
+			Timer timer = new Timer(this, phase);
+			synchronized (this) {
+				Deque<Timer> timers = runningTimers.get(timer.thread);
+				if (timers == null) {
+					timers = new ArrayDeque<>();
+					runningTimers.put(timer.thread, timers);
+				}
+				Timer enclosing = timers.peek();
+				if (enclosing != null) {
+					enclosing.pause();
+				}
+				timers.push(timer);
+			}
+			timer.resume();
+			return timer;
+		}
+
+		private synchronized void endPhase(Timer timer) {
+			PhaseMetrics metrics = phases.get(timer.phase);
+			if (metrics == null) {
+				metrics = new PhaseMetrics();
+				phases.put(timer.phase, metrics);
+			}
+			metrics.nanos += timer.nanos;
+			metrics.allocatedBytes = timer.allocatedBytes < 0 || metrics.allocatedBytes < 0 ? -1
+					: metrics.allocatedBytes + timer.allocatedBytes;
+			metrics.fileCount += timer.fileCount;
+			metrics.count++;
+			Deque<Timer> timers = runningTimers.get(timer.thread);
+			if (timers != null) {
+				timers.remove(timer);
+				Timer enclosing = timers.peek();
+				if (enclosing != null) {
+					enclosing.resume();
+				} else if (timers.isEmpty()) {
+					runningTimers.remove(timer.thread);
+				}
+			}
+		}
+
+		/**
+		 * Records the time spent on a source file.
+		 */
+		public synchronized void addFile(Phase phase, String path, long nanos) {
+			if (slowestFiles.size() < SLOWEST_FILES) {
+				slowestFiles.add(new FileMetrics(path, phase, nanos));
+			} else if (slowestFiles.peek().nanos < nanos) {
+				slowestFiles.poll();
+				slowestFiles.add(new FileMetrics(path, phase, nanos));
+			}
+		}
+
+		public synchronized void setKind(String kind) {
+			this.kind = kind;
+		}
+
+		public synchronized String getKind() {
+			return kind;
+		}
+
+		/**
+		 * Gets the total build time, or -1 if the build is not finished.
+		 */
+		public synchronized long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public synchronized Map<Phase, PhaseMetrics> getPhases() {
+			return new EnumMap<>(phases);
+		}
+
+		/**
+		 * Gets the slowest source files of the build, slowest first.
+		 */
+		public synchronized List<FileMetrics> getSlowestFiles() {
+			List<FileMetrics> files = new ArrayList<>(slowestFiles);
+			files.sort(Comparator.comparingLong((FileMetrics f) -> f.nanos).reversed());
+			return files;
+		}
+	}
+
+	/**
+	 * Times a phase of a build (see {@link BuildRecord#startPhase(Phase)}).
+	 */
+	public static class Timer implements AutoCloseable {
+		private final BuildRecord record;
+		private final Phase phase;
+		// the thread that started the timer, and whose allocations are counted
+		private final Thread thread = Thread.currentThread();
+		private long nanos;
+		private long allocatedBytes;
+		private int fileCount;
+		private long resumedNanos;
+		private long resumedAllocatedBytes;
+
+		private Timer(BuildRecord record, Phase phase) {
+			this.record = record;
+			this.phase = phase;
+		}
+
+		/**
+		 * Adds to the number of files processed in this phase.
+		 */
+		public void addFiles(int count) {
+			fileCount += count;
+		}
+
+		private void resume() {
+			resumedAllocatedBytes = getAllocatedBytes(thread);
+			resumedNanos = System.nanoTime();
+		}
+
+		private void pause() {
+			nanos += System.nanoTime() - resumedNanos;
+			long allocated = getAllocatedBytes(thread);
+			allocatedBytes = allocated < 0 || allocatedBytes < 0 ? -1
+					: allocatedBytes + allocated - resumedAllocatedBytes;
+		}
+
+		@Override
+		public void close() {
+			pause();
+			record.endPhase(this);
+		}
+	}
+
+	private final Deque<BuildRecord> records = new ArrayDeque<>();
+
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+	private BuildMetrics() {
+	}
+
+	public static BuildMetrics getDefault() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Starts recording the metrics of a build.
+	 *
+	 * @param profile
+	 *            the built profile, or null for project-level steps
+	 */
+	public BuildRecord startBuild(String project, String profile) {
+		return new BuildRecord(project, profile);
+	}
+
+	/**
+	 * Ends the given build and adds its metrics to the registry.
+	 */
+	public void endBuild(BuildRecord record) {
+		synchronized (record) {
+			record.totalNanos = System.nanoTime() - record.startNanos;
+		}
+		synchronized (this) {
+			records.addLast(record);
+			while (records.size() > MAX_RECORDS) {
+				records.removeFirst();
+			}
+		}
+		fireChanged();
+	}
+
+	/**
+	 * Gets the metrics of the last builds, oldest first.
+	 */
+	public synchronized List<BuildRecord> getRecords() {
+		return new ArrayList<>(records);
+	}
+
+	/**
+	 * Gets the slowest source files of all the recorded builds, slowest
+	 * first.
+	 */
+	public List<FileMetrics> getSlowestFiles(int count) {
+		List<FileMetrics> files = new ArrayList<>();
+		for (BuildRecord record : getRecords()) {
+			files.addAll(record.getSlowestFiles());
+		}
+		files.sort(Comparator.comparingLong((FileMetrics f) -> f.nanos).reversed());
+		return files.subList(0, Math.min(count, files.size()));
+	}
+
+	public void clear() {
+		synchronized (this) {
+			records.clear();
+		}
+		fireChanged();
+	}
+
+	/**
+	 * Adds a listener that is notified (in the building thread) when the
+	 * recorded metrics change.
+	 */
+	public void addListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	private void fireChanged() {
+		for (Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Exports the recorded metrics as a JSON file.
+	 */
+	public void exportJson(File file) throws IOException {
+		Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Gets the recorded metrics as a JSON document (times are in
+	 * milliseconds).
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\n  \"builds\": [");
+		List<BuildRecord> records = getRecords();
+		for (int i = 0; i < records.size(); i++) {
+			BuildRecord record = records.get(i);
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\"project\": ").append(quote(record.project));
+			json.append(", \"profile\": ").append(quote(record.profile));
+			json.append(", \"kind\": ").append(quote(record.getKind()));
+			json.append(", \"startTime\": ").append(record.startTime);
+			json.append(", \"totalMs\": ").append(toMillis(record.getTotalNanos()));
+			json.append(",\n      \"phases\": {");
+			boolean first = true;
+			for (Map.Entry<Phase, PhaseMetrics> entry : record.getPhases().entrySet()) {
+				PhaseMetrics metrics = entry.getValue();
+				json.append(first ? "\n" : ",\n");
+				json.append("        ").append(quote(entry.getKey().name().toLowerCase())).append(": {");
+				json.append("\"ms\": ").append(toMillis(metrics.nanos));
+				json.append(", \"allocatedBytes\": ").append(metrics.allocatedBytes);
+				json.append(", \"files\": ").append(metrics.fileCount);
+				json.append(", \"count\": ").append(metrics.count).append("}");
+				first = false;
+			}
+			json.append(first ? "}" : "\n      }");
+			json.append(",\n      \"slowestFiles\": [");
+			first = true;
+			for (FileMetrics file : record.getSlowestFiles()) {
+				json.append(first ? "\n" : ",\n");
+				json.append("        {\"path\": ").append(quote(file.path));
+				json.append(", \"phase\": ").append(quote(file.phase.name().toLowerCase()));
+				json.append(", \"ms\": ").append(toMillis(file.nanos)).append("}");
+				first = false;
+			}
+			json.append(first ? "]" : "\n      ]").append("}");
+		}
+		json.append(records.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+		return json.toString();
+	}
+
+	private static String toMillis(long nanos) {
+		return nanos < 0 ? "null" : String.valueOf(nanos / 1000000.0);
+	}
+
+	private static String quote(String string) {
+		if (string == null) {
+			return "null";
+		}
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : string.toCharArray()) {
+			switch (c) {
+			case '"':
+				quoted.append("\\\"");
+				break;
+			case '\\':
+				quoted.append("\\\\");
+				break;
+			case '\n':
+				quoted.append("\\n");
+				break;
+			case '\r':
+				quoted.append("\\r");
+				break;
+			case '\t':
+				quoted.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					quoted.append(String.format("\\u%04x", (int) c));
+				} else {
+					quoted.append(c);
+				}
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	private static long getAllocatedBytes(Thread thread) {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				return sunBean.getThreadAllocatedBytes(thread.getId());
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.jsweet.plugin.Log;
+
+/**
+ * A workspace cache of the candy extractions, shared by the projects.
+ * <p>
+ * The transpiler extracts the candies found in the class path of a project
+ * into the project's working directory, which is deleted on each clean. An
+ * entry of this cache holds a copy of such an extraction, keyed by the
+ * content hashes of the candy jars, so that the projects depending on the
+ * same candies (and the same project after a clean) start from an existing
+ * extraction instead of processing the candies again. The transpiler still
+ * checks the restored extraction against the class path and processes the
+ * candies again when it does not match.
+ */
+public class CandyCache {
+
+	private static final String CANDY_METADATA = "META-INF/candy-metadata.json";
+
+	private static final int MAX_ENTRIES = 20;
+
+	private static class JarHash {
+		final long length;
+		final long lastModified;
+		// null if the jar is not a candy
+		final String hash;
+
+		JarHash(long length, long lastModified, String hash) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+
+	private final File directory;
+
+	// the hashes of the class path jars, computed once per jar version
+	private final Map<File, JarHash> jarHashes = new HashMap<>();
+
+	public CandyCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Computes the cache key of the candies of a class path.
+	 *
+	 * @param classPath
+	 *            the class path the candies are extracted from
+	 * @param fingerprint
+	 *            the version of the transpiler processing the candies
+	 * @return the key, or null if there is no candy in the class path
+	 */
+	public String getKey(String classPath, String fingerprint) throws IOException {
+		List<String> hashes = new ArrayList<>();
+		for (String entry : classPath.split(File.pathSeparator)) {
+			File jar = new File(entry);
+			if (jar.isFile()) {
+				String hash = getCandyHash(jar);
+				if (hash != null) {
+					hashes.add(hash);
+				}
+			}
+		}
+		if (hashes.isEmpty()) {
+			return null;
+		}
+		// the candies order does not matter
+		hashes.sort(null);
+		MessageDigest digest = createDigest();
+		digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+		for (String hash : hashes) {
+			digest.update((byte) 0);
+			digest.update(hash.getBytes(StandardCharsets.UTF_8));
+		}
+		return toHex(digest.digest());
+	}
+
+	private String getCandyHash(File jar) throws IOException {
+		synchronized (jarHashes) {
+			JarHash jarHash = jarHashes.get(jar);
+			if (jarHash != null && jarHash.length == jar.length() && jarHash.lastModified == jar.lastModified()) {
+				return jarHash.hash;
+			}
+		}
+		long length = jar.length();
+		long lastModified = jar.lastModified();
+		String hash = null;
+		boolean candy;
+		try (ZipFile zip = new ZipFile(jar)) {
+			candy = zip.getEntry(CANDY_METADATA) != null;
+		} catch (IOException e) {
+			// not a jar
+			candy = false;
+		}
+		if (candy) {
+			MessageDigest digest = createDigest();
+			byte[] buffer = new byte[8192];
+			try (InputStream in = new FileInputStream(jar)) {
+				int count;
+				while ((count = in.read(buffer)) > 0) {
+					digest.update(buffer, 0, count);
+				}
+			}
+			hash = toHex(digest.digest());
+		}
+		synchronized (jarHashes) {
+			jarHashes.put(jar, new JarHash(length, lastModified, hash));
+		}
+		return hash;
+	}
+
+	private static MessageDigest createDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private File getEntryDirectory(String key) {
+		return new File(directory, key);
+	}
+
+	private static boolean isEmpty(File candiesDir) {
+		String[] files = candiesDir.list();
+		return files == null || files.length == 0;
+	}
+
+	/**
+	 * Restores an extraction into a candies directory, unless the directory
+	 * already holds an extraction.
+	 *
+	 * @param key
+	 *            the entry key
+	 * @param candiesDir
+	 *            the directory the candies are extracted to
+	 * @return true if the extraction was restored
+	 */
+	public synchronized boolean restore(String key, File candiesDir) {
+		File entryDir = getEntryDirectory(key);
+		if (!entryDir.isDirectory() || !isEmpty(candiesDir)) {
+			return false;
+		}
+		try {
+			FileUtils.copyDirectory(entryDir, candiesDir);
+			// keeps recently used entries when trimming
+			entryDir.setLastModified(System.currentTimeMillis());
+			return true;
+		} catch (IOException e) {
+			Log.warning("cannot restore candies " + key, e);
+			FileUtils.deleteQuietly(entryDir);
+			try {
+				FileUtils.cleanDirectory(candiesDir);
+			} catch (IOException | IllegalArgumentException e2) {
+				// the transpiler will extract over it
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Stores the extraction of a candies directory, unless there is already
+	 * an entry with the same key.
+	 *
+	 * @param key
+	 *            the entry key
+	 * @param candiesDir
+	 *            the directory the candies were extracted to
+	 */
+	public synchronized void store(String key, File candiesDir) {
+		File entryDir = getEntryDirectory(key);
+		if (entryDir.isDirectory() || isEmpty(candiesDir)) {
+			return;
+		}
+		// the entry is written aside and then moved, so that a partial entry
+		// is never restored
+		File tmpDir = new File(directory, "tmp-" + UUID.randomUUID());
+		try {
+			FileUtils.copyDirectory(candiesDir, tmpDir);
+			Files.move(tmpDir.toPath(), entryDir.toPath());
+			trim(MAX_ENTRIES);
+		} catch (IOException e) {
+			Log.warning("cannot store candies " + key, e);
+		} finally {
+			FileUtils.deleteQuietly(tmpDir);
+		}
+	}
+
+	/**
+	 * Removes the least recently used entries so that the cache holds at
+	 * most the given number of entries.
+	 */
+	public synchronized void trim(int maxEntries) {
+		File[] entries = directory.listFiles();
+		if (entries == null || entries.length <= maxEntries) {
+			return;
+		}
+		Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+		for (File entry : Arrays.asList(entries).subList(0, entries.length - maxEntries)) {
+			FileUtils.deleteQuietly(entry);
+		}
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public synchronized void clear() {
+		FileUtils.deleteQuietly(directory);
+	}
+
+}
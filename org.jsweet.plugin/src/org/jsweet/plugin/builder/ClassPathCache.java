@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.jsweet.plugin.Log;
+import org.jsweet.plugin.Log.Category;
+
+/**
+ * A cache of the resolved class paths of the Java projects.
+ * <p>
+ * Resolving a class path (and checking the existence of its entries) is done
+ * once, and the result is reused by the following builds until JDT notifies
+ * a class path change for the project. The cache must be registered as a JDT
+ * element change listener (see {@link JavaCore#addElementChangedListener}).
+ */
+public class ClassPathCache implements IElementChangedListener {
+
+	// the delta flags telling that the resolved class path of a project may
+	// have changed
+	private static final int CLASSPATH_FLAGS = IJavaElementDelta.F_CLASSPATH_CHANGED
+			| IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED | IJavaElementDelta.F_OPENED
+			| IJavaElementDelta.F_CLOSED;
+
+	/**
+	 * A resolved class path.
+	 */
+	public static class ResolvedClassPath {
+		/** The source folders (workspace paths). */
+		public final List<IPath> sourceDirs;
+		/** The class path, as given to the transpiler. */
+		public final String classPath;
+		/** The JDK of the class path, or null if not found. */
+		public final String jdkHome;
+
+		private ResolvedClassPath(List<IPath> sourceDirs, String classPath, String jdkHome) {
+			this.sourceDirs = Collections.unmodifiableList(sourceDirs);
+			this.classPath = classPath;
+			this.jdkHome = jdkHome;
+		}
+	}
+
+	private final Map<IProject, ResolvedClassPath> classPaths = new ConcurrentHashMap<>();
+
+	// incremented on each invalidation, so that class paths resolved while
+	// being invalidated are not cached
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Gets the resolved class path of a Java project, from the cache if it
+	 * did not change since it was last resolved.
+	 */
+	public ResolvedClassPath get(IProject project) throws CoreException {
+		ResolvedClassPath classPath = classPaths.get(project);
+		if (classPath == null) {
+			long invalidation = invalidations.get();
+			classPath = resolve(project);
+			if (invalidation == invalidations.get()) {
+				classPaths.put(project, classPath);
+			}
+		}
+		return classPath;
+	}
+
+	/**
+	 * Discards the cached class path of the given project.
+	 */
+	public void invalidate(IProject project) {
+		invalidations.incrementAndGet();
+		classPaths.remove(project);
+	}
+
+	@Override
+	public void elementChanged(ElementChangedEvent event) {
+		invalidate(event.getDelta());
+	}
+
+	private void invalidate(IJavaElementDelta delta) {
+		IJavaElement element = delta.getElement();
+		if (element.getElementType() == IJavaElement.JAVA_MODEL) {
+			for (IJavaElementDelta child : delta.getAffectedChildren()) {
+				invalidate(child);
+			}
+		} else if (element.getElementType() == IJavaElement.JAVA_PROJECT) {
+			if (delta.getKind() != IJavaElementDelta.CHANGED || (delta.getFlags() & CLASSPATH_FLAGS) != 0) {
+				IProject project = ((IJavaProject) element).getProject();
+				if (classPaths.containsKey(project)) {
+					Log.debug(Category.CACHE, () -> "class path changed: " + project.getName());
+				}
+				invalidate(project);
+			}
+		}
+	}
+
+	private static ResolvedClassPath resolve(IProject project) throws CoreException {
+		Log.debug(Category.CACHE, () -> "resolving class path: " + project.getName());
+		IJavaProject javaProject = JavaCore.create(project);
+		List<IPath> sourceDirs = new ArrayList<>();
+		StringBuilder classPath = new StringBuilder();
+		String jdkHome = null;
+		for (IClasspathEntry e : javaProject.getResolvedClasspath(true)) {
+			if (e.getEntryKind() == IClasspathEntry.CPE_SOURCE) {
+				sourceDirs.add(e.getPath());
+			} else if (e.getEntryKind() == IClasspathEntry.CPE_LIBRARY) {
+				if (e.getPath().toString().endsWith("/lib/rt.jar")) {
+					jdkHome = e.getPath().removeLastSegments(2).toString();
+				}
+			}
+			classPath.append(resolve(project, e.getPath()).toString());
+			classPath.append(File.pathSeparator);
+		}
+		return new ResolvedClassPath(sourceDirs, classPath.toString(), jdkHome);
+	}
+
+	private static File resolve(IProject project, IPath path) {
+		String string = path.toString();
+		if (path.isAbsolute()) {
+			File f = new File(string);
+			if (f.exists()) {
+				return f;
+			} else {
+				return new File(project.getWorkspace().getRoot().getLocation().toFile(), string);
+			}
+		} else {
+			return new File(project.getLocation().toFile(), string);
+		}
+	}
+
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.AnnotationTypeDeclaration;
+import org.eclipse.jdt.core.dom.EnumDeclaration;
+import org.eclipse.jdt.core.dom.Name;
+import org.eclipse.jdt.core.dom.NameQualifiedType;
+import org.eclipse.jdt.core.dom.ParameterizedType;
+import org.eclipse.jdt.core.dom.QualifiedName;
+import org.eclipse.jdt.core.dom.QualifiedType;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.eclipse.jdt.core.dom.SimpleType;
+import org.eclipse.jdt.core.dom.Type;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.jsweet.plugin.Log;
+
+/**
+ * An index of the dependencies between the Java source files of a project,
+ * used to find the files to be transpiled again when some files change.
+ * <p>
+ * Source files are parsed without bindings, so that dependencies are tracked
+ * by simple type names: a file depends on a type if it uses its simple name,
+ * which over-approximates the actual dependencies. The dependents of a type
+ * are the files that use it, plus (transitively) its subtypes and its
+ * supertypes.
+ */
+public class DependencyIndex {
+
+	private static class Entry {
+		long lastModified;
+		long length;
+		Set<String> declaredTypes = Collections.emptySet();
+		// the types declared before the last update (for renamed types)
+		Set<String> previousTypes = Collections.emptySet();
+		Set<String> referencedNames = Collections.emptySet();
+		Set<String> superTypes = Collections.emptySet();
+	}
+
+	private final Map<File, Entry> entries = new HashMap<>();
+	// simple name -> files using it
+	private final Map<String, Set<File>> references = new HashMap<>();
+	// simple type name -> files declaring a direct subtype
+	private final Map<String, Set<File>> subTypes = new HashMap<>();
+	// simple type name -> files declaring it
+	private final Map<String, Set<File>> declarations = new HashMap<>();
+	// file -> lock held while the file is indexed, so that a changed file is
+	// parsed once when several profiles are built concurrently
+	private final ConcurrentMap<File, Object> locks = new ConcurrentHashMap<>();
+
+	/**
+	 * Indexes the given files if they are not indexed yet or if they changed
+	 * since they were indexed.
+	 */
+	public void updateAll(Collection<File> files, Charset charset) {
+		for (File file : files) {
+			update(file, charset);
+		}
+	}
+
+	/**
+	 * Indexes the given file again if it changed since it was indexed.
+	 */
+	public void update(File file, Charset charset) {
+		synchronized (locks.computeIfAbsent(file, f -> new Object())) {
+			synchronized (this) {
+				Entry entry = entries.get(file);
+				if (entry != null && entry.lastModified == file.lastModified() && entry.length == file.length()) {
+					return;
+				}
+			}
+			Entry entry = new Entry();
+			entry.lastModified = file.lastModified();
+			entry.length = file.length();
+			try {
+				parse(new String(Files.readAllBytes(file.toPath()), charset).toCharArray(), entry);
+			} catch (IOException e) {
+				Log.warning("cannot index " + file, e);
+			}
+			put(file, entry);
+		}
+	}
+
+	private synchronized void put(File file, Entry entry) {
+		Entry previous = entries.put(file, entry);
+		if (previous != null) {
+			unlink(file, previous);
+			// keeps the types of older updates that were not consumed yet
+			entry.previousTypes = new HashSet<>(previous.previousTypes);
+			entry.previousTypes.addAll(previous.declaredTypes);
+		}
+		for (String name : entry.referencedNames) {
+			link(references, name, file);
+		}
+		for (String name : entry.superTypes) {
+			link(subTypes, name, file);
+		}
+		for (String name : entry.declaredTypes) {
+			link(declarations, name, file);
+		}
+	}
+
+	/**
+	 * Removes the given file from the index.
+	 *
+	 * @return the types that were declared by the file
+	 */
+	public synchronized Set<String> remove(File file) {
+		locks.remove(file);
+		Entry entry = entries.remove(file);
+		if (entry == null) {
+			return Collections.emptySet();
+		}
+		unlink(file, entry);
+		return entry.declaredTypes;
+	}
+
+	/**
+	 * Gets the simple names of the types declared in the given file when it
+	 * was last indexed.
+	 */
+	public synchronized Set<String> getDeclaredTypes(File file) {
+		Entry entry = entries.get(file);
+		return entry == null ? Collections.<String> emptySet() : new HashSet<>(entry.declaredTypes);
+	}
+
+	/**
+	 * Gets the simple names of the types declared in the given file, before
+	 * and after its last update.
+	 */
+	public synchronized Set<String> getChangedTypes(File file) {
+		Entry entry = entries.get(file);
+		if (entry == null) {
+			return Collections.emptySet();
+		}
+		Set<String> types = new HashSet<>(entry.declaredTypes);
+		types.addAll(entry.previousTypes);
+		return types;
+	}
+
+	/**
+	 * Forgets the types declared before the last updates, once all the
+	 * profiles have got the changed types (see
+	 * {@link #getChangedTypes(File)}).
+	 */
+	public synchronized void clearPreviousTypes() {
+		for (Entry entry : entries.values()) {
+			entry.previousTypes = Collections.emptySet();
+		}
+	}
+
+	/**
+	 * Gets the files that depend on the given types: the files that use them
+	 * and, transitively, the files that declare their subtypes. The files
+	 * that declare the supertypes of the given types are included as well,
+	 * since JSweet generates a type with its whole hierarchy in mind
+	 * (overloads and overrides), so that the whole hierarchy of a changed
+	 * type is transpiled again.
+	 */
+	public synchronized Set<File> getDependents(Collection<String> types) {
+		Set<File> dependents = new LinkedHashSet<>();
+		Set<String> visitedTypes = new HashSet<>();
+		Deque<String> queue = new ArrayDeque<>();
+		for (String type : types) {
+			Set<File> declaringFiles = declarations.get(type);
+			if (declaringFiles != null) {
+				for (File declaringFile : declaringFiles) {
+					queue.addAll(entries.get(declaringFile).superTypes);
+				}
+			}
+		}
+		// the supertypes
+		while (!queue.isEmpty()) {
+			String type = queue.poll();
+			if (!visitedTypes.add(type)) {
+				continue;
+			}
+			Set<File> declaringFiles = declarations.get(type);
+			if (declaringFiles != null) {
+				for (File declaringFile : declaringFiles) {
+					if (dependents.add(declaringFile)) {
+						queue.addAll(entries.get(declaringFile).superTypes);
+					}
+				}
+			}
+		}
+		visitedTypes.clear();
+		queue.addAll(types);
+		while (!queue.isEmpty()) {
+			String type = queue.poll();
+			if (!visitedTypes.add(type)) {
+				continue;
+			}
+			Set<File> users = references.get(type);
+			if (users != null) {
+				dependents.addAll(users);
+			}
+			Set<File> subTypeFiles = subTypes.get(type);
+			if (subTypeFiles != null) {
+				for (File subTypeFile : subTypeFiles) {
+					dependents.add(subTypeFile);
+					queue.addAll(entries.get(subTypeFile).declaredTypes);
+				}
+			}
+		}
+		return dependents;
+	}
+
+	/**
+	 * Gets the files the given file depends on: the files that declare the
+	 * types it uses and, transitively, the supertypes of these types (the
+	 * converse of {@link #getDependents(Collection)}).
+	 */
+	public synchronized Set<File> getDependencies(File file) {
+		Set<File> dependencies = new LinkedHashSet<>();
+		Entry entry = entries.get(file);
+		if (entry == null) {
+			return dependencies;
+		}
+		Set<String> visitedTypes = new HashSet<>();
+		Deque<String> queue = new ArrayDeque<>(entry.referencedNames);
+		while (!queue.isEmpty()) {
+			String type = queue.poll();
+			if (!visitedTypes.add(type)) {
+				continue;
+			}
+			Set<File> declaringFiles = declarations.get(type);
+			if (declaringFiles != null) {
+				for (File declaringFile : declaringFiles) {
+					if (!declaringFile.equals(file) && dependencies.add(declaringFile)) {
+						queue.addAll(entries.get(declaringFile).superTypes);
+					}
+				}
+			}
+		}
+		return dependencies;
+	}
+
+	/**
+	 * Groups the given (indexed) files by type hierarchy: two files are in
+	 * the same group when one declares a subtype of a type declared by the
+	 * other, directly or through other files of the given ones.
+	 *
+	 * @return the groups, in the order of their first file
+	 */
+	public synchronized List<List<File>> getHierarchyGroups(List<File> files) {
+		Map<String, List<Integer>> declaringFiles = new HashMap<>();
+		for (int i = 0; i < files.size(); i++) {
+			Entry entry = entries.get(files.get(i));
+			if (entry != null) {
+				for (String type : entry.declaredTypes) {
+					declaringFiles.computeIfAbsent(type, t -> new ArrayList<>()).add(i);
+				}
+			}
+		}
+		// union-find over the file indexes
+		int[] parents = new int[files.size()];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+		}
+		for (int i = 0; i < files.size(); i++) {
+			Entry entry = entries.get(files.get(i));
+			if (entry == null) {
+				continue;
+			}
+			for (String superType : entry.superTypes) {
+				List<Integer> superTypeFiles = declaringFiles.get(superType);
+				if (superTypeFiles != null) {
+					for (int j : superTypeFiles) {
+						parents[find(parents, i)] = find(parents, j);
+					}
+				}
+			}
+		}
+		Map<Integer, List<File>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < files.size(); i++) {
+			groups.computeIfAbsent(find(parents, i), root -> new ArrayList<>()).add(files.get(i));
+		}
+		return new ArrayList<>(groups.values());
+	}
+
+	private static int find(int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	public synchronized void clear() {
+		locks.clear();
+		entries.clear();
+		references.clear();
+		subTypes.clear();
+		declarations.clear();
+	}
+
+	private void unlink(File file, Entry entry) {
+		for (String name : entry.referencedNames) {
+			unlink(references, name, file);
+		}
+		for (String name : entry.superTypes) {
+			unlink(subTypes, name, file);
+		}
+		for (String name : entry.declaredTypes) {
+			unlink(declarations, name, file);
+		}
+	}
+
+	private static void link(Map<String, Set<File>> map, String name, File file) {
+		Set<File> files = map.get(name);
+		if (files == null) {
+			files = new HashSet<>();
+			map.put(name, files);
+		}
+		files.add(file);
+	}
+
+	private static void unlink(Map<String, Set<File>> map, String name, File file) {
+		Set<File> files = map.get(name);
+		if (files != null) {
+			files.remove(file);
+			if (files.isEmpty()) {
+				map.remove(name);
+			}
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private static void parse(char[] source, final Entry entry) {
+		ASTParser parser = ASTParser.newParser(AST.JLS8);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setResolveBindings(false);
+		Map<String, String> options = JavaCore.getOptions();
+		JavaCore.setComplianceOptions(JavaCore.VERSION_1_8, options);
+		parser.setCompilerOptions(options);
+		parser.setSource(source);
+		final Set<String> declaredTypes = new HashSet<>();
+		final Set<String> referencedNames = new HashSet<>();
+		final Set<String> superTypes = new HashSet<>();
+		parser.createAST(null).accept(new ASTVisitor() {
+			@Override
+			public boolean visit(TypeDeclaration node) {
+				if (node.getSuperclassType() != null) {
+					addSimpleName(superTypes, node.getSuperclassType());
+				}
+				for (Object type : node.superInterfaceTypes()) {
+					addSimpleName(superTypes, (Type) type);
+				}
+				return true;
+			}
+
+			@Override
+			public boolean visit(EnumDeclaration node) {
+				for (Object type : node.superInterfaceTypes()) {
+					addSimpleName(superTypes, (Type) type);
+				}
+				return true;
+			}
+
+			@Override
+			public void endVisit(TypeDeclaration node) {
+				declaredTypes.add(node.getName().getIdentifier());
+			}
+
+			@Override
+			public void endVisit(EnumDeclaration node) {
+				declaredTypes.add(node.getName().getIdentifier());
+			}
+
+			@Override
+			public void endVisit(AnnotationTypeDeclaration node) {
+				declaredTypes.add(node.getName().getIdentifier());
+			}
+
+			@Override
+			public boolean visit(SimpleName node) {
+				if (!(node.getParent() instanceof AbstractTypeDeclaration)
+						&& Character.isUpperCase(node.getIdentifier().charAt(0))) {
+					referencedNames.add(node.getIdentifier());
+				}
+				return false;
+			}
+		});
+		entry.declaredTypes = declaredTypes;
+		entry.referencedNames = referencedNames;
+		entry.superTypes = superTypes;
+	}
+
+	private static void addSimpleName(Set<String> names, Type type) {
+		if (type instanceof ParameterizedType) {
+			type = ((ParameterizedType) type).getType();
+		}
+		if (type instanceof SimpleType) {
+			Name name = ((SimpleType) type).getName();
+			names.add(name.isSimpleName() ? ((SimpleName) name).getIdentifier()
+					: ((QualifiedName) name).getName().getIdentifier());
+		} else if (type instanceof QualifiedType) {
+			names.add(((QualifiedType) type).getName().getIdentifier());
+		} else if (type instanceof NameQualifiedType) {
+			names.add(((NameQualifiedType) type).getName().getIdentifier());
+		}
+	}
+
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jsweet.plugin.JSweetPlugin;
+import org.jsweet.plugin.builder.BuildMetrics.BuildRecord;
+import org.jsweet.plugin.builder.BuildMetrics.Phase;
+import org.jsweet.plugin.builder.BuildMetrics.PhaseMetrics;
+import org.jsweet.plugin.builder.BuildMetrics.Timer;
+import org.jsweet.plugin.preferences.ProfileConfig;
+import org.jsweet.plugin.preferences.ProjectConfig;
+import org.jsweet.transpiler.JSweetProblem;
+import org.jsweet.transpiler.JSweetTranspiler;
+import org.jsweet.transpiler.Severity;
+import org.jsweet.transpiler.SourceFile;
+import org.jsweet.transpiler.SourcePosition;
+import org.jsweet.transpiler.TranspilationHandler;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * A command line driver that runs the full build of {@link JSweetBuilder} on
+ * a project directory, without an Eclipse runtime or workspace.
+ * <p>
+ * The profiles are read from the project preferences
+ * (<code>.settings/org.jsweet.plugin.prefs</code>, with the same defaults as
+ * in the IDE), and the source folders and libraries from the Eclipse
+ * <code>.classpath</code> file. Class path containers (such as Maven
+ * dependencies) cannot be resolved outside of Eclipse, so their entries must
+ * be given with the <code>-cp</code> option. The source files are looked up
+ * and split into batches as in the workspace, except that derived folders are
+ * not known: only the Java output folder of the <code>.classpath</code> file
+ * is skipped. The time spent in each build phase is printed after each
+ * profile build.
+ *
+ * <pre>
+ * java -cp org.jsweet.plugin.jar:jsweet-transpiler-jar-with-dependencies.jar \
+ *     org.jsweet.plugin.builder.HeadlessBuilder [options] &lt;project dir&gt; [&lt;profile&gt;...]
+ * </pre>
+ */
+public class HeadlessBuilder {
+
+	public static final String PREFERENCES_FILE = ".settings/" + JSweetPlugin.ID + ".prefs";
+
+	public static final String CLASSPATH_FILE = ".classpath";
+
+	private static final String JRE_CONTAINER = "org.eclipse.jdt.launching.JRE_CONTAINER";
+
+	private static final String USAGE = "usage: java " + HeadlessBuilder.class.getName()
+			+ " [options] <project dir> [<profile>...]\n" //
+			+ "options:\n" //
+			+ "  -cp, --classpath <path>  additional class path entries (for class path containers)\n" //
+			+ "  --jdk-home <dir>         the JDK used to compile the sources (the running one by default)\n" //
+			+ "  --metrics <file>         exports the build metrics to the given JSON file\n";
+
+	private final File projectDir;
+	private final List<String> profiles;
+	private final PrintStream out;
+	private String additionalClassPath;
+	private String jdkHome;
+
+	private Properties preferences;
+	private ProjectConfig projectConfig;
+	private final List<File> classPathSourceDirs = new ArrayList<>();
+	private final List<File> classPath = new ArrayList<>();
+	private File javaOutputDir;
+	// created when the files of a profile have to be grouped (it requires the
+	// JDT core jars)
+	private DependencyIndex dependencyIndex;
+
+	private int errorCount;
+	private int warningCount;
+
+	/**
+	 * Creates a headless builder.
+	 *
+	 * @param projectDir
+	 *            the directory of the Eclipse project to be built
+	 * @param profiles
+	 *            the profiles to be built (all the profiles of the project
+	 *            when empty)
+	 * @param out
+	 *            where to print the problems and timings
+	 */
+	public HeadlessBuilder(File projectDir, List<String> profiles, PrintStream out) {
+		this.projectDir = projectDir.getAbsoluteFile();
+		this.profiles = profiles;
+		this.out = out;
+	}
+
+	public void setAdditionalClassPath(String additionalClassPath) {
+		this.additionalClassPath = additionalClassPath;
+	}
+
+	public void setJdkHome(String jdkHome) {
+		this.jdkHome = jdkHome;
+	}
+
+	public static void main(String[] args) {
+		List<String> arguments = new ArrayList<>(Arrays.asList(args));
+		String classPath = null;
+		String jdkHome = null;
+		File metricsFile = null;
+		try {
+			while (!arguments.isEmpty() && arguments.get(0).startsWith("-")) {
+				String option = arguments.remove(0);
+				switch (option) {
+				case "-cp":
+				case "--classpath":
+					classPath = arguments.remove(0);
+					break;
+				case "--jdk-home":
+					jdkHome = arguments.remove(0);
+					break;
+				case "--metrics":
+					metricsFile = new File(arguments.remove(0));
+					break;
+				default:
+					throw new IllegalArgumentException("unknown option: " + option);
+				}
+			}
+			if (arguments.isEmpty()) {
+				throw new IllegalArgumentException("missing project directory");
+			}
+		} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			System.err.println(e instanceof IllegalArgumentException ? e.getMessage() : "missing option value");
+			System.err.print(USAGE);
+			System.exit(2);
+		}
+		File projectDir = new File(arguments.remove(0));
+		HeadlessBuilder builder = new HeadlessBuilder(projectDir, arguments, System.out);
+		builder.setAdditionalClassPath(classPath);
+		builder.setJdkHome(jdkHome);
+		int status;
+		try {
+			status = builder.build() ? 0 : 1;
+			if (metricsFile != null) {
+				BuildMetrics.getDefault().exportJson(metricsFile);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			status = 1;
+		}
+		System.exit(status);
+	}
+
+	/**
+	 * Builds the profiles of the project.
+	 *
+	 * @return true if no errors were reported
+	 */
+	public boolean build() throws Exception {
+		if (!projectDir.isDirectory()) {
+			throw new IOException("project directory not found: " + projectDir);
+		}
+		preferences = loadPreferences();
+		projectConfig = ProjectConfig.load(this::getPreference);
+		List<String> builtProfiles = profiles;
+		if (builtProfiles.isEmpty()) {
+			builtProfiles = Arrays.asList(projectConfig.getProfiles());
+		}
+		errorCount = 0;
+		warningCount = 0;
+		for (String profile : builtProfiles) {
+			buildProfile(profile);
+		}
+		return errorCount == 0;
+	}
+
+	private Properties loadPreferences() throws IOException {
+		Properties properties = new Properties();
+		File file = new File(projectDir, PREFERENCES_FILE);
+		if (file.exists()) {
+			try (InputStream in = new FileInputStream(file)) {
+				properties.load(in);
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Gets a preference from the project preferences, or its default value.
+	 */
+	private String getPreference(String name) {
+		String value = preferences.getProperty(name);
+		return value != null ? value : ProfileConfig.getDefaultValues().get(name);
+	}
+
+	/**
+	 * Reads the source folders and libraries of the project's
+	 * <code>.classpath</code> file.
+	 */
+	private void loadClassPath() throws Exception {
+		classPathSourceDirs.clear();
+		classPath.clear();
+		javaOutputDir = null;
+		File file = new File(projectDir, CLASSPATH_FILE);
+		if (file.exists()) {
+			NodeList entries = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file)
+					.getElementsByTagName("classpathentry");
+			for (int i = 0; i < entries.getLength(); i++) {
+				Element entry = (Element) entries.item(i);
+				String kind = entry.getAttribute("kind");
+				String path = entry.getAttribute("path");
+				switch (kind) {
+				case "src":
+					if (path.startsWith("/")) {
+						// required project: its outputs must be given with -cp
+						out.println("warning: ignoring project dependency " + path);
+					} else {
+						File sourceDir = resolve(path);
+						classPathSourceDirs.add(sourceDir);
+						classPath.add(sourceDir);
+					}
+					break;
+				case "lib":
+					classPath.add(resolve(path));
+					break;
+				case "con":
+					if (!path.startsWith(JRE_CONTAINER)) {
+						out.println("warning: cannot resolve class path container " + path);
+					}
+					break;
+				case "output":
+					// derived in the workspace, so skipped when scanning
+					javaOutputDir = resolve(path);
+					break;
+				default:
+					out.println("warning: ignoring class path entry " + kind + ":" + path);
+				}
+			}
+		}
+		if (!StringUtils.isBlank(additionalClassPath)) {
+			for (String entry : additionalClassPath.split(File.pathSeparator)) {
+				classPath.add(new File(entry));
+			}
+		}
+	}
+
+	/**
+	 * Resolves a class path entry path as Eclipse does: absolute paths that do
+	 * not exist are relative to the workspace, which is assumed to be the
+	 * project's parent directory.
+	 */
+	private File resolve(String path) {
+		File file = new File(path);
+		if (file.isAbsolute()) {
+			return file.exists() ? file : new File(projectDir.getParentFile(), path);
+		}
+		return new File(projectDir, path);
+	}
+
+	private void buildProfile(String profile) throws Exception {
+		ProfileConfig config = ProfileConfig.load(profile, this::getPreference);
+		BuildRecord metrics = BuildMetrics.getDefault().startBuild(projectDir.getName(), profile);
+		metrics.setKind("full");
+		int errorsBefore = errorCount;
+		int warningsBefore = warningCount;
+		List<File> javaFiles;
+		try {
+			SourceFilter sourceFilter;
+			try {
+				sourceFilter = SourceFilter.compile(config.getSourceIncludeFilter(), config.getSourceExcludeFilter());
+			} catch (IllegalArgumentException e) {
+				report(Severity.ERROR, null, -1, "invalid JSweet source filter: " + e.getMessage());
+				return;
+			}
+			try (Timer timer = metrics.startPhase(Phase.RESOLVE_CLASSPATH)) {
+				loadClassPath();
+			}
+			List<File> sourceDirs = new ArrayList<>();
+			if (!StringUtils.isEmpty(config.getSourceFolders())) {
+				for (String name : config.getSourceFolders().split("[,;]")) {
+					sourceDirs.add(new File(projectDir, name));
+				}
+			} else {
+				sourceDirs.addAll(classPathSourceDirs);
+			}
+			try (Timer timer = metrics.startPhase(Phase.SCAN_SOURCES)) {
+				javaFiles = scanSourceFiles(sourceDirs, getExcludedDirs(config, sourceDirs), sourceFilter);
+				timer.addFiles(javaFiles.size());
+			}
+			try (Timer timer = metrics.startPhase(Phase.INIT_CLASSPATH)) {
+				Transpilers.initClassPath(jdkHome);
+			}
+			JSweetTranspiler transpiler;
+			try (Timer timer = metrics.startPhase(Phase.CREATE_TRANSPILER)) {
+				transpiler = Transpilers.create(config, projectDir, StringUtils.join(classPath, File.pathSeparator));
+			}
+			if (!javaFiles.isEmpty()) {
+				List<List<File>> batches = TranspileBatches.split(javaFiles, config.getBundle(), projectConfig,
+						this::getDependencyIndex, Charset.defaultCharset(), metrics);
+				try (Timer timer = metrics.startPhase(Phase.TRANSPILE)) {
+					timer.addFiles(javaFiles.size());
+					for (List<File> batch : batches) {
+						transpiler.transpile(new ConsoleTranspilationHandler(), SourceFile.toSourceFiles(batch));
+					}
+				}
+			}
+		} finally {
+			BuildMetrics.getDefault().endBuild(metrics);
+		}
+		printSummary(metrics, javaFiles.size(), errorCount - errorsBefore, warningCount - warningsBefore);
+	}
+
+	/**
+	 * Computes the directories that cannot contain source files: the working
+	 * directory, the output folders of the profile and the Java output folder
+	 * (unless they contain a source folder), as the builder does in the
+	 * workspace.
+	 */
+	private List<Path> getExcludedDirs(ProfileConfig config, List<File> sourceDirs) {
+		List<File> directories = Transpilers.getOutputDirectories(config, projectDir);
+		if (javaOutputDir != null) {
+			directories.add(javaOutputDir);
+		}
+		Path projectPath = toPath(projectDir);
+		List<Path> excludedDirs = new ArrayList<>();
+		for (File directory : directories) {
+			Path path = toPath(directory);
+			if (projectPath.startsWith(path)) {
+				continue;
+			}
+			boolean containsSources = false;
+			for (File sourceDir : sourceDirs) {
+				containsSources |= toPath(sourceDir).startsWith(path);
+			}
+			if (!containsSources) {
+				excludedDirs.add(path);
+			}
+		}
+		return excludedDirs;
+	}
+
+	private DependencyIndex getDependencyIndex() {
+		if (dependencyIndex == null) {
+			dependencyIndex = new DependencyIndex();
+		}
+		return dependencyIndex;
+	}
+
+	private static Path toPath(File file) {
+		return file.toPath().toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Looks up the source files selected by the source folders and filters,
+	 * like the builder does in the workspace.
+	 */
+	private List<File> scanSourceFiles(List<File> sourceDirs, final List<Path> excludedDirs,
+			final SourceFilter sourceFilter) throws IOException {
+		final List<File> javaFiles = new ArrayList<>();
+		if (sourceDirs.isEmpty()) {
+			sourceDirs = Arrays.asList(projectDir);
+		}
+		for (File sourceDir : sourceDirs) {
+			if (!sourceDir.isDirectory()) {
+				continue;
+			}
+			final Path root = sourceDir.toPath();
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					if (Transpilers.NODE_MODULES.equals(String.valueOf(dir.getFileName()))
+							|| excludedDirs.contains(toPath(dir.toFile()))) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					String path = toRelativePath(root, dir);
+					return path.isEmpty() || sourceFilter.mayIncludeUnder(path) ? FileVisitResult.CONTINUE
+							: FileVisitResult.SKIP_SUBTREE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (file.getFileName().toString().endsWith(".java")
+							&& sourceFilter.isIncluded(toRelativePath(root, file))) {
+						javaFiles.add(file.toFile());
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		return javaFiles;
+	}
+
+	private static String toRelativePath(Path root, Path path) {
+		return root.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+
+	private void printSummary(BuildRecord metrics, int fileCount, int errors, int warnings) {
+		out.println("JSweet build of " + metrics.project + " ["
+				+ (StringUtils.isBlank(metrics.profile) ? "default" : metrics.profile) + "]: "
+				+ fileCount + " file(s), " + errors + " error(s), " + warnings + " warning(s)");
+		for (Map.Entry<Phase, PhaseMetrics> entry : metrics.getPhases().entrySet()) {
+			out.println(String.format("  %-32s %10.1f ms %8d file(s)", entry.getKey().label,
+					entry.getValue().getNanos() / 1000000.0, entry.getValue().getFileCount()));
+		}
+		out.println(String.format("  %-32s %10.1f ms", "total", metrics.getTotalNanos() / 1000000.0));
+	}
+
+	private void report(Severity severity, File file, int line, String message) {
+		if (severity == Severity.ERROR) {
+			errorCount++;
+		} else {
+			warningCount++;
+		}
+		StringBuilder problem = new StringBuilder();
+		if (file != null) {
+			problem.append(file.getPath()).append(':');
+			if (line >= 0) {
+				problem.append(line).append(':');
+			}
+			problem.append(' ');
+		}
+		problem.append(severity == Severity.ERROR ? "error: " : "warning: ").append(message);
+		out.println(problem);
+	}
+
+	/**
+	 * Prints the reported problems. Java errors are reported too, since
+	 * there is no Java builder to report them.
+	 */
+	private class ConsoleTranspilationHandler implements TranspilationHandler {
+		@Override
+		public void report(JSweetProblem problem, SourcePosition sourcePosition, String message) {
+			if (sourcePosition == null || sourcePosition.getFile() == null) {
+				HeadlessBuilder.this.report(problem.getSeverity(), null, -1, message);
+			} else {
+				HeadlessBuilder.this.report(problem.getSeverity(), sourcePosition.getFile(),
+						sourcePosition.getStartLine(), message);
+			}
+		}
+
+		@Override
+		public void onCompleted(JSweetTranspiler transpiler, boolean fullPass, SourceFile[] files) {
+		}
+	}
+
+}
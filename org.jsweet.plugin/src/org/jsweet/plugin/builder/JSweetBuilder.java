@@ -16,50 +16,81 @@
 package org.jsweet.plugin.builder;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
-import org.eclipse.core.resources.IResourceVisitor;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
 import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.runtime.preferences.InstanceScope;
 import org.eclipse.jdt.core.IClasspathEntry;
-import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaProject;
-import org.eclipse.jdt.core.IPackageFragment;
-import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.JavaCore;
-import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.ui.PreferenceConstants;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.ui.preferences.ScopedPreferenceStore;
 import org.jsweet.JSweetConfig;
+import org.jsweet.plugin.JSweetPlugin;
 import org.jsweet.plugin.Log;
+import org.jsweet.plugin.Log.Category;
+import org.jsweet.plugin.builder.BuildMetrics.Phase;
+import org.jsweet.plugin.builder.BuildMetrics.Timer;
+import org.jsweet.plugin.builder.ClassPathCache.ResolvedClassPath;
 import org.jsweet.plugin.preferences.Preferences;
-import org.jsweet.transpiler.JSweetFactory;
+import org.jsweet.plugin.preferences.ProfileConfig;
+import org.jsweet.plugin.preferences.ProjectConfig;
 import org.jsweet.transpiler.JSweetProblem;
 import org.jsweet.transpiler.JSweetTranspiler;
-import org.jsweet.transpiler.ModuleKind;
 import org.jsweet.transpiler.Severity;
 import org.jsweet.transpiler.SourceFile;
 import org.jsweet.transpiler.SourcePosition;
@@ -72,17 +103,133 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 	public static final String ID = "org.jsweet.plugin.jsweetBuilder";
 	public static final String JSWEET_PROBLEM_MARKER_TYPE = "org.jsweet.plugin.jsweetProblem";
 
+	// one building context per profile, kept between builds for incremental
+	// builds
+	private final Map<String, BuildingContext> contexts = new HashMap<>();
+
+	// releases the transpilers of an idle project
+	private Job releaseJob;
+
+	// the source files removed during the current build, forgotten by the
+	// dependency index once all the profiles are built
+	private final Set<File> removedFiles = Collections.synchronizedSet(new HashSet<File>());
+
+	// how long a build waits for tsc to complete in watch mode (ms)
+	private static final long TSC_COMPLETION_TIMEOUT = 5 * 60 * 1000;
+
+	// the base name of the bundle files generated by the transpiler
+	private static final String BUNDLE_NAME = "bundle";
+
+	// the dependencies between the project's source files, shared by the
+	// profiles
+	private final DependencyIndex dependencyIndex = new DependencyIndex();
+
+	// builds the profiles in parallel (created by the first parallel build)
+	private ThreadPoolExecutor profileExecutor;
+
+	// the profile executors of all the builders, shut down with the plugin
+	private static final Set<ExecutorService> profileExecutors = Collections
+			.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ExecutorService, Boolean>()));
+
 	static class BuildingContext {
 		public final String profile;
 		public final IProject project;
-		// watch mode does not work (yet?) under Windows, so we do not use it
-		public boolean USE_WATCH_MODE = false;
-		public final Map<File, SourceFile> sourceFiles = new HashMap<>();
+		// true when the transpiler keeps tsc running between builds (see
+		// TscWatchService)
+		public boolean watchMode = false;
+		// the handler of all the transpilations of a watching transpiler:
+		// its tsc process calls back the handler of the transpilation that
+		// started it
+		public JSweetTranspilationHandler watchHandler;
+		// true when tsc failed during the current transpilation (reported by
+		// the tsc output reader in watch mode)
+		public volatile boolean tscFailed = false;
+		// the files transpiled for the profile and their outputs, persisted
+		// in the output manifest of the profile
+		public final SourceFileRegistry sourceFiles;
+		// the profile preferences of the current build
+		public ProfileConfig config;
+		// the project preferences of the current build
+		public ProjectConfig projectConfig;
+		public final List<IPath> sourceDirs = new ArrayList<>();
+		// the compiled include/exclude filters of the profile
+		public SourceFilter sourceFilter;
+		// the folders that cannot contain source files (working directory
+		// and outputs), skipped when looking up the source files
+		public final List<IPath> excludedDirs = new ArrayList<>();
 		public JSweetTranspiler transpiler;
+		// the settings and class path the transpiler was created with
+		public String transpilerKey;
+		// the profile preferences used for the last full build
+		public ProfileConfig settings;
+		// marker changes of the current build, applied by the builder
+		// thread once all the profiles are built (see applyBuildResults)
+		public final List<Problem> problems = new ArrayList<>();
+		public final Set<IResource> markersToDelete = new LinkedHashSet<>();
+		public boolean deleteAllMarkers = false;
+		// the metrics of the current build
+		public BuildMetrics.BuildRecord metrics;
 
 		public BuildingContext(IProject project, String profile) {
+			this(project, profile, Preferences.getProfileConfig(project, profile), getManifestFile(project, profile));
+		}
+
+		BuildingContext(IProject project, String profile, ProfileConfig config) {
+			this(project, profile, config, null);
+		}
+
+		BuildingContext(IProject project, String profile, ProfileConfig config, File manifestFile) {
 			this.project = project;
 			this.profile = profile;
+			this.config = config;
+			this.sourceFiles = new SourceFileRegistry(project.getLocation().toFile(), manifestFile);
+		}
+
+		public synchronized void addProblem(Problem problem) {
+			problems.add(problem);
+		}
+
+		/**
+		 * Gets the problems reported since the given index (problems may be
+		 * reported by other threads, see {@link #addProblem(Problem)}).
+		 */
+		public synchronized List<Problem> getProblems(int fromIndex) {
+			return new ArrayList<>(problems.subList(fromIndex, problems.size()));
+		}
+
+		public synchronized int getProblemCount() {
+			return problems.size();
+		}
+
+		/**
+		 * Gets and forgets the problems reported so far.
+		 */
+		public synchronized List<Problem> takeProblems() {
+			List<Problem> taken = new ArrayList<>(problems);
+			problems.clear();
+			return taken;
+		}
+	}
+
+	/**
+	 * A problem reported by the transpiler, to be turned into a marker.
+	 */
+	static class Problem {
+		public final IResource resource;
+		public final String message;
+		public final int lineNumber;
+		public final int charStart;
+		public final int charEnd;
+		public final int severity;
+
+		public Problem(IResource resource, String message, int lineNumber, int charStart, int charEnd,
+				int severity) {
+			this.resource = resource;
+			this.message = message;
+			this.lineNumber = lineNumber;
+			this.charStart = charStart;
+			this.charEnd = charEnd;
+			this.severity = severity;
 		}
 	}
 
@@ -102,11 +249,81 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 		return false;
 	}
 
-	private static void cleanFiles(BuildingContext context) throws CoreException {
+	/**
+	 * Gets the file where the outputs of the given profile are recorded, in
+	 * the project's working location (outside of the project).
+	 */
+	private static File getManifestFile(IProject project, String profile) {
+		return getStateFile(project, profile, "outputs", ".manifest");
+	}
+
+	/**
+	 * Gets a file of the given profile in the project's working location.
+	 */
+	private static File getStateFile(IProject project, String profile, String name, String extension) {
+		if (!StringUtils.isEmpty(profile)) {
+			try {
+				name += "-" + URLEncoder.encode(profile, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return project.getWorkingLocation(JSweetPlugin.ID).append(name + extension).toFile();
+	}
+
+	static void cleanFiles(BuildingContext context) throws CoreException {
+		context.project.deleteMarkers(JSWEET_PROBLEM_MARKER_TYPE, true, IResource.DEPTH_INFINITE);
+		if (context.sourceFiles.hasManifest()) {
+			deleteRegisteredOutputs(context);
+		} else {
+			// built before outputs were recorded
+			deleteOutputFiles(context);
+			context.project.refreshLocal(IResource.DEPTH_INFINITE, null);
+		}
+	}
+
+	/**
+	 * Deletes the files recorded as generated for the given profile (see
+	 * {@link #deleteOutputs(BuildingContext, List)}) and forgets them.
+	 */
+	private static void deleteRegisteredOutputs(BuildingContext context) {
+		deleteOutputs(context, context.sourceFiles.getOutputFiles());
+		context.sourceFiles.clear();
+		context.sourceFiles.save();
+	}
+
+	/**
+	 * Deletes the given generated files and the folders (within the project)
+	 * that they leave empty, and requests the refresh of the deleted
+	 * resources.
+	 */
+	private static void deleteOutputs(BuildingContext context, List<File> outputs) {
+		String projectPath = context.project.getLocation().toFile().getAbsolutePath() + File.separator;
+		Set<File> folders = new HashSet<>();
+		for (File output : outputs) {
+			FileUtils.deleteQuietly(output);
+			folders.add(output.getParentFile());
+		}
+		List<File> deletedFolders = new ArrayList<>();
+		for (File folder : folders) {
+			// stops at the first folder that is not empty (or already
+			// deleted)
+			while (folder != null && folder.getAbsolutePath().startsWith(projectPath) && folder.delete()) {
+				deletedFolders.add(folder);
+				folder = folder.getParentFile();
+			}
+		}
+		OutputRefreshJob.refreshFiles(outputs);
+		OutputRefreshJob.refreshFolders(deletedFolders);
+	}
+
+	/**
+	 * Deletes the generated files by looking them up in the output folders,
+	 * when the profile has no output manifest.
+	 */
+	private static void deleteOutputFiles(BuildingContext context) {
 		try {
-			context.project.deleteMarkers(JSWEET_PROBLEM_MARKER_TYPE, true, IResource.DEPTH_INFINITE);
-			File tsOutDir = new File(context.project.getLocation().toFile(),
-					Preferences.getTsOutputFolder(context.project, context.profile));
+			File tsOutDir = new File(context.project.getLocation().toFile(), context.config.getTsOutputFolder());
 			LinkedList<File> files = new LinkedList<>();
 			if (tsOutDir.exists()) {
 				Util.addFiles(".ts", tsOutDir, files);
@@ -118,8 +335,7 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 				}
 			}
 			files.clear();
-			File jsOutDir = new File(context.project.getLocation().toFile(),
-					Preferences.getJsOutputFolder(context.project, context.profile));
+			File jsOutDir = new File(context.project.getLocation().toFile(), context.config.getJsOutputFolder());
 			if (jsOutDir.exists()) {
 				Util.addFiles(".js", jsOutDir, files);
 				Util.addFiles(".js.map", jsOutDir, files);
@@ -130,9 +346,8 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 					FileUtils.deleteQuietly(jsOutDir);
 				}
 			}
-			context.project.refreshLocal(IResource.DEPTH_INFINITE, null);
 		} catch (NoClassDefFoundError e) {
-			e.printStackTrace();
+			Log.error("cannot delete the output files of " + context.project.getName(), e);
 		}
 	}
 
@@ -153,13 +368,13 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 					project.refreshLocal(IResource.DEPTH_INFINITE, null);
 				}
 				if (!ArrayUtils.contains(cp, e)) {
-					Log.info("adding " + e + " to build path");
+					Log.info(Category.WORKSPACE, () -> "adding " + e + " to build path");
 					cp = ArrayUtils.add(cp, 0, e);
 					javaProject.setRawClasspath(cp, true, null);
 				}
 			} else {
 				if (ArrayUtils.contains(cp, e)) {
-					Log.info("removing " + e + " from build path");
+					Log.info(Category.WORKSPACE, () -> "removing " + e + " from build path");
 					cp = ArrayUtils.remove(cp, ArrayUtils.indexOf(cp, e));
 					javaProject.setRawClasspath(cp, true, null);
 				}
@@ -174,7 +389,7 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 		FileUtils.deleteQuietly(tmp);
 		autoFillClassPath(project);
 		// delete markers set and files created
-		for (String profile : Preferences.parseProfiles(project)) {
+		for (String profile : Preferences.getProjectConfig(project).getProfiles()) {
 			cleanFiles(new BuildingContext(project, profile));
 		}
 	}
@@ -212,25 +427,7 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 	}
 
 	private static void rebuildProjects(final List<IProject> projects) {
-		String name = "rebuild";// Resources.BUNDLE.getString("preferences.compiler.rebuild.job.name");
-		Job job = new Job(name) {
-			@Override
-			protected IStatus run(IProgressMonitor monitor) {
-				try {
-					for (IProject project : projects) {
-						if (project.isOpen() && project.hasNature(JSweetNature.ID)) {
-							project.build(IncrementalProjectBuilder.CLEAN_BUILD, JSweetBuilder.ID, null, monitor);
-							project.build(IncrementalProjectBuilder.FULL_BUILD, JSweetBuilder.ID, null, monitor);
-						}
-					}
-					return Status.OK_STATUS;
-				} catch (CoreException e) {
-					return e.getStatus();
-				}
-			}
-		};
-		job.setRule(ResourcesPlugin.getWorkspace().getRuleFactory().buildRule());
-		job.schedule();
+		new WorkspaceBuildScheduler(projects, true, Preferences.getBuildWorkers()).schedule();
 	}
 
 	private static void cleanProjects(final List<IProject> projects) {
@@ -255,43 +452,43 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 	}
 
 	class IncrementalGrabJavaFileVisitor implements IResourceDeltaVisitor {
-		private IJavaProject project;
 		private BuildingContext context;
-		public List<File> javaFiles = new ArrayList<File>();
-		public List<IFile> javaResourceFiles = new ArrayList<IFile>();
+		private Charset charset;
+		public Set<File> javaFiles = new LinkedHashSet<File>();
+		public Set<IFile> javaResourceFiles = new LinkedHashSet<IFile>();
+		private Set<String> changedTypes = new HashSet<String>();
+		// the outputs of the removed files, deleted by the visitor
+		public List<File> deletedOutputs = new ArrayList<File>();
+		// true when a file was removed without its outputs or dependents
+		// being known, so that a full build is required
+		public boolean stateMissing = false;
 
-		public IncrementalGrabJavaFileVisitor(IJavaProject project, BuildingContext context) {
-			this.project = project;
+		public IncrementalGrabJavaFileVisitor(BuildingContext context) throws CoreException {
 			this.context = context;
+			this.charset = Charset.forName(context.project.getDefaultCharset());
 		}
 
-		private void grabJavaFileHierarchy(IResource resource) throws JavaModelException, CoreException {
+		private void grabJavaFile(IResource resource) {
 			IFile resourceFile = (IFile) resource;
 			File file = new File(resource.getProject().getLocation().toFile(),
 					resourceFile.getProjectRelativePath().toFile().toString());
-			if (!javaFiles.contains(file)) {
-				javaFiles.add(file);
+			if (javaFiles.add(file)) {
 				javaResourceFiles.add(resourceFile);
-				IPackageFragment packge = project.findPackageFragment(resource.getParent().getFullPath());
-				if (packge != null && packge.getCompilationUnits() != null) {
-					for (ICompilationUnit cu : packge.getCompilationUnits()) {
-						if (cu.getResource().equals(resource)) {
-							for (IType t1 : cu.getAllTypes()) {
-								for (IType t2 : t1.newTypeHierarchy(project, null).getAllTypes()) {
-									IResource r = t2.getResource();
-									if (r instanceof IFile && resource.getName().endsWith(".java")) {
-										resourceFile = (IFile) r;
-										file = new File(r.getProject().getLocation().toFile(),
-												resourceFile.getProjectRelativePath().toFile().toString());
-										if (!javaFiles.contains(file)) {
-											javaFiles.add(file);
-											javaResourceFiles.add(resourceFile);
-										}
-									}
-								}
+				dependencyIndex.update(file, charset);
+				changedTypes.addAll(dependencyIndex.getChangedTypes(file));
+			}
+		}
 
-							}
-						}
+		/**
+		 * Adds the files of the context that depend on the grabbed files.
+		 */
+		public void grabDependents() {
+			for (File file : dependencyIndex.getDependents(changedTypes)) {
+				if (context.sourceFiles.contains(file) && javaFiles.add(file)) {
+					IFile resourceFile = context.project.getWorkspace().getRoot()
+							.getFileForLocation(new Path(file.getAbsolutePath()));
+					if (resourceFile != null) {
+						javaResourceFiles.add(resourceFile);
 					}
 				}
 			}
@@ -299,39 +496,56 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 
 		public boolean visit(IResourceDelta delta) throws CoreException {
 			IResource resource = delta.getResource();
-			if (resource instanceof IFile && resource.getName().endsWith(".java")) {
+			if (resource.getType() == IResource.FOLDER
+					&& (resource.isDerived() || !mayContainSourceFiles(context, resource.getName(),
+							resource.getFullPath()))) {
+				return false;
+			}
+			if (resource instanceof IFile && resource.getName().endsWith(".java")
+					&& isSourceFile(context, (IFile) resource)) {
 				switch (delta.getKind()) {
 				case IResourceDelta.ADDED:
-					if (context.USE_WATCH_MODE && context.transpiler != null) {
+					if (context.watchMode && context.transpiler != null) {
 						context.transpiler.resetTscWatchMode();
 					}
-					grabJavaFileHierarchy(resource);
+					grabJavaFile(resource);
 					break;
 				case IResourceDelta.REMOVED:
-					deleteMarkers((IFile) resource);
-					SourceFile sf;
-					if (context.USE_WATCH_MODE && context.transpiler != null) {
-						File file = new File(resource.getProject().getLocation().toFile(),
-								((IFile) resource).getProjectRelativePath().toFile().toString());
-						sf = context.transpiler.getWatchedFile(file);
+					context.markersToDelete.add(resource);
+					File file = new File(resource.getProject().getLocation().toFile(),
+							((IFile) resource).getProjectRelativePath().toFile().toString());
+					if (context.watchMode && context.transpiler != null) {
 						context.transpiler.resetTscWatchMode();
-					} else {
-						File file = new File(resource.getProject().getLocation().toFile(),
-								((IFile) resource).getProjectRelativePath().toFile().toString());
-						sf = context.sourceFiles.get(file);
-						context.sourceFiles.remove(file);
 					}
-					if (sf != null) {
-						File tsFile = sf.getTsFile();
-						File jsFile = sf.getJsFile();
-						File jsMapFile = sf.getJsFile();
-						FileUtils.deleteQuietly(tsFile);
-						FileUtils.deleteQuietly(jsFile);
-						FileUtils.deleteQuietly(jsMapFile);
+					List<File> outputs = context.sourceFiles.remove(file);
+					Set<String> removedTypes = dependencyIndex.getDeclaredTypes(file);
+					if (removedTypes.isEmpty()) {
+						// not indexed before its removal: at least its main
+						// type is known
+						removedTypes = Collections.singleton(resource.getName().replaceAll("\\.java$", ""));
+					}
+					// a file removed by a cancelled build is already unregistered
+					boolean removedBefore = !removedFiles.add(file);
+					if (outputs == null && !removedBefore) {
+						stateMissing = true;
+					} else {
+						if (outputs != null) {
+							for (File output : outputs) {
+								FileUtils.deleteQuietly(output);
+							}
+							deletedOutputs.addAll(outputs);
+						}
+						// the files using the removed types must be
+						// transpiled again (and will report errors)
+						changedTypes.addAll(removedTypes);
 					}
 					break;
 				case IResourceDelta.CHANGED:
-					grabJavaFileHierarchy(resource);
+					// ignore marker-only changes (caused by the builder itself)
+					if ((delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED
+							| IResourceDelta.ENCODING)) != 0) {
+						grabJavaFile(resource);
+					}
 					break;
 				}
 			}
@@ -340,59 +554,169 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 		}
 	}
 
-	private static boolean isIncluded(BuildingContext context, IPath path) {
-		if (!StringUtils.isBlank(Preferences.getSourceIncludeFilter(context.project, context.profile))) {
-			if (!path.toString().matches(Preferences.getSourceIncludeFilter(context.project, context.profile))) {
-				Log.info("excluded by included filer: " + path);
+	static boolean isIncluded(BuildingContext context, IPath path) {
+		if (!context.sourceFilter.isIncluded(path.toString())) {
+			Log.trace(Category.FILES, () -> "excluded by filters: " + path);
+			return false;
+		}
+		Log.trace(Category.FILES, () -> "include: " + path);
+		return true;
+	}
+
+	/**
+	 * Compiles the source filters of the given context, unless they are
+	 * already compiled from the current preferences. Invalid filters are
+	 * reported on the project and select no files.
+	 */
+	private static void updateSourceFilter(BuildingContext context) {
+		String includeFilter = context.config.getSourceIncludeFilter();
+		String excludeFilter = context.config.getSourceExcludeFilter();
+		if (context.sourceFilter != null && context.sourceFilter.isCompiledFrom(includeFilter, excludeFilter)) {
+			return;
+		}
+		try {
+			context.sourceFilter = SourceFilter.compile(includeFilter, excludeFilter);
+		} catch (IllegalArgumentException e) {
+			Log.error("invalid source filter", e);
+			context.addProblem(new Problem(context.project, "invalid JSweet source filter: " + e.getMessage(), -1,
+					-1, -1, IMarker.SEVERITY_ERROR));
+			context.sourceFilter = SourceFilter.NONE;
+		}
+	}
+
+	/**
+	 * Tells if the given folder may contain source files selected by the
+	 * context's source folders and filters, so that other folders can be
+	 * skipped when looking up the source files.
+	 *
+	 * @param name
+	 *            the folder name
+	 * @param folder
+	 *            the folder full path
+	 */
+	private static boolean mayContainSourceFiles(BuildingContext context, String name, IPath folder) {
+		if (Transpilers.NODE_MODULES.equals(name)) {
+			return false;
+		}
+		for (IPath excludedDir : context.excludedDirs) {
+			if (excludedDir.isPrefixOf(folder)) {
 				return false;
 			}
 		}
-		if (!StringUtils.isBlank(Preferences.getSourceExcludeFilter(context.project, context.profile))) {
-			if (path.toString().matches(Preferences.getSourceExcludeFilter(context.project, context.profile))) {
-				Log.info("excluded by excluded filer: " + path);
-				return false;
+		if (context.sourceDirs.isEmpty()) {
+			return context.sourceFilter.mayIncludeUnder(folder.removeFirstSegments(1).toString());
+		}
+		for (IPath sourcePath : context.sourceDirs) {
+			if (sourcePath.isPrefixOf(folder)) {
+				IPath relativePath = folder.makeRelativeTo(sourcePath);
+				return relativePath.isEmpty() || context.sourceFilter.mayIncludeUnder(relativePath.toString());
+			}
+			if (folder.isPrefixOf(sourcePath)) {
+				return true;
 			}
 		}
-		Log.info("include: " + path);
-		return true;
+		return false;
+	}
+
+	/**
+	 * Computes the folders of the project that cannot contain source files:
+	 * the working directory and the output folders of the profile (unless
+	 * they contain a source folder).
+	 */
+	private static void updateExcludedDirs(BuildingContext context) {
+		context.excludedDirs.clear();
+		File projectDir = context.project.getLocation().toFile();
+		IPath projectPath = context.project.getFullPath();
+		for (File directory : Transpilers.getOutputDirectories(context.config, projectDir)) {
+			IContainer container = context.project.getWorkspace().getRoot()
+					.getContainerForLocation(new Path(directory.getAbsolutePath()));
+			if (container == null || container.getFullPath().isPrefixOf(projectPath)) {
+				continue;
+			}
+			boolean containsSources = false;
+			for (IPath sourcePath : context.sourceDirs) {
+				containsSources |= container.getFullPath().isPrefixOf(sourcePath);
+			}
+			if (!containsSources) {
+				context.excludedDirs.add(container.getFullPath());
+			}
+		}
+		Log.debug(Category.BUILD, () -> "excluded dirs: " + context.excludedDirs);
+	}
+
+	/**
+	 * Looks up the source files of the context, only visiting its source
+	 * folders (or the whole project when there are none).
+	 */
+	List<File> scanSourceFiles(BuildingContext context) throws CoreException {
+		GrabJavaFilesVisitor v = new GrabJavaFilesVisitor(context);
+		if (context.sourceDirs.isEmpty()) {
+			context.project.accept(v, IResource.NONE);
+		} else {
+			IWorkspaceRoot root = context.project.getWorkspace().getRoot();
+			for (IPath sourcePath : context.sourceDirs) {
+				boolean nested = false;
+				for (IPath otherPath : context.sourceDirs) {
+					nested |= !otherPath.equals(sourcePath) && otherPath.isPrefixOf(sourcePath);
+				}
+				IResource sourceDir = root.findMember(sourcePath);
+				if (!nested && sourceDir instanceof IContainer) {
+					sourceDir.accept(v, IResource.NONE);
+				}
+			}
+		}
+		return v.javaFiles;
 	}
 
-	class GrabJavaFilesVisitor implements IResourceVisitor {
+	private static boolean isWorkingDir(IResource resource) {
+		return resource.getType() == IResource.FOLDER && resource.getProjectRelativePath().segmentCount() == 1
+				&& resource.getName().equals(JSweetTranspiler.TMP_WORKING_DIR_NAME);
+	}
+
+	private static boolean isSourceFile(BuildingContext context, IFile file) {
+		if (file.getProjectRelativePath().segment(0).equals(JSweetTranspiler.TMP_WORKING_DIR_NAME)) {
+			return false;
+		}
+		if (!context.sourceDirs.isEmpty()) {
+			for (IPath sourcePath : context.sourceDirs) {
+				if (sourcePath.isPrefixOf(file.getFullPath())) {
+					return isIncluded(context, file.getFullPath().makeRelativeTo(sourcePath));
+				}
+			}
+			return false;
+		} else {
+			return isIncluded(context, file.getProjectRelativePath());
+		}
+	}
+
+	class GrabJavaFilesVisitor implements IResourceProxyVisitor {
 		private BuildingContext context;
 		public List<File> javaFiles = new ArrayList<File>();
-		public List<IPath> sourceDirs;
 
-		public GrabJavaFilesVisitor(BuildingContext context, List<IPath> sourceDirs) {
+		public GrabJavaFilesVisitor(BuildingContext context) {
 			this.context = context;
-			this.sourceDirs = sourceDirs;
-		}
-
-		public boolean visit(IResource resource) {
-			if (resource instanceof IFile && resource.getName().endsWith(".java")) {
-				IFile file = (IFile) resource;
-				if (file.getProjectRelativePath().segment(0).equals(JSweetTranspiler.TMP_WORKING_DIR_NAME)) {
-					return true;
-				}
-				if (!sourceDirs.isEmpty()) {
-					for (IPath sourcePath : sourceDirs) {
-						if (sourcePath.isPrefixOf(file.getFullPath())) {
-							IPath relativePath = file.getFullPath().makeRelativeTo(sourcePath);
-							if (isIncluded(context, relativePath)) {
-								javaFiles.add(new File(resource.getProject().getLocation().toFile(),
-										file.getProjectRelativePath().toFile().toString()));
-							}
-							return true;
-						}
-					}
-				} else {
-					if (isIncluded(context, file.getProjectRelativePath())) {
-						javaFiles.add(new File(resource.getProject().getLocation().toFile(),
+		}
+
+		public boolean visit(IResourceProxy proxy) {
+			if (proxy.isDerived()) {
+				return false;
+			}
+			switch (proxy.getType()) {
+			case IResource.FILE:
+				if (proxy.getName().endsWith(".java")) {
+					IFile file = (IFile) proxy.requestResource();
+					if (isSourceFile(context, file)) {
+						javaFiles.add(new File(file.getProject().getLocation().toFile(),
 								file.getProjectRelativePath().toFile().toString()));
 					}
 				}
+				return false;
+			case IResource.FOLDER:
+				return mayContainSourceFiles(context, proxy.getName(), proxy.requestFullPath());
+			default:
+				// return true to continue visiting children.
+				return true;
 			}
-			// return true to continue visiting children.
-			return true;
 		}
 	}
 
@@ -400,128 +724,513 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 
 		BuildingContext context;
 
+		// released when tsc is done with the transpiled files, which happens
+		// after the transpilation returns in watch mode
+		private volatile CountDownLatch completion = new CountDownLatch(1);
+
+		// the files of the current transpilation (in watch mode, tsc calls
+		// back with the files of the transpilation that started it)
+		private volatile SourceFile[] files;
+
+		// true once the transpilation is over for the builder: problems and
+		// completions reported afterwards belong to no build
+		volatile boolean closed = false;
+
 		public JSweetTranspilationHandler(BuildingContext context) {
 			this.context = context;
 		}
 
+		/**
+		 * Prepares the handler for the transpilation of the given files, so
+		 * that a watch mode handler can be reused by each batch.
+		 */
+		void open(SourceFile[] files) {
+			this.files = files;
+			completion = new CountDownLatch(1);
+			closed = false;
+		}
+
 		@Override
 		public void report(JSweetProblem problem, SourcePosition sourcePosition, String message) {
 			if (problem == JSweetProblem.INTERNAL_JAVA_ERROR) {
 				// ignore Java errors because they will be reported by Eclipse
 				return;
 			}
-			String base = context.project.getLocation().toFile().getAbsolutePath();
+			if (closed) {
+				Log.debug(Category.TRANSPILER, () -> "ignoring problem reported after the transpilation: " + message);
+				return;
+			}
+			if (problem == JSweetProblem.INTERNAL_TSC_ERROR) {
+				context.tscFailed = true;
+				// no completion will follow
+				completion.countDown();
+			}
+			int severity = problem.getSeverity() == Severity.ERROR ? IMarker.SEVERITY_ERROR
+					: IMarker.SEVERITY_WARNING;
 			if (sourcePosition == null || sourcePosition.getFile() == null) {
-				addMarker(context.project, message, -1, -1, -1,
-						problem.getSeverity() == Severity.ERROR ? IMarker.SEVERITY_ERROR : IMarker.SEVERITY_WARNING);
+				report(severity, message, null, -1, -1, -1);
 			} else {
-				IFile f = null;
+				report(severity, message, sourcePosition.getFile(), sourcePosition.getStartLine(),
+						sourcePosition.getStartPosition().getPosition(),
+						sourcePosition.getEndPosition().getPosition());
+			}
+		}
+
+		/**
+		 * Reports a problem on the given source file, or on the project when
+		 * the file is null or cannot be found in the project.
+		 */
+		void report(int severity, String message, File file, int lineNumber, int charStart, int charEnd) {
+			IFile f = null;
+			if (file != null) {
+				String base = context.project.getLocation().toFile().getAbsolutePath();
 				try {
-					f = (IFile) context.project
-							.findMember(sourcePosition.getFile().getAbsolutePath().substring(base.length() + 1));
+					f = (IFile) context.project.findMember(file.getAbsolutePath().substring(base.length() + 1));
 				} catch (Exception e) {
 					Log.error(message, e);
 					// swallow
 				}
 				if (f == null) {
 					try {
-						f = (IFile) context.project.findMember(sourcePosition.getFile().getPath());
+						f = (IFile) context.project.findMember(file.getPath());
 					} catch (Exception e) {
 						Log.error(message, e);
 						// swallow
 					}
 				}
-				if (f == null) {
-					addMarker(context.project, message, -1, -1, -1, problem.getSeverity() == Severity.ERROR
-							? IMarker.SEVERITY_ERROR : IMarker.SEVERITY_WARNING);
-				} else {
-					addMarker(f, message, sourcePosition.getStartLine(),
-							sourcePosition.getStartPosition().getPosition(),
-							sourcePosition.getEndPosition().getPosition(), problem.getSeverity() == Severity.ERROR
-									? IMarker.SEVERITY_ERROR : IMarker.SEVERITY_WARNING);
-				}
+			}
+			if (f == null) {
+				context.addProblem(new Problem(context.project, message, -1, -1, -1, severity));
+			} else {
+				context.addProblem(new Problem(f, message, lineNumber, charStart, charEnd, severity));
 			}
 		}
 
 		@Override
 		public void onCompleted(JSweetTranspiler transpiler, boolean fullPass, SourceFile[] files) {
+			if (closed) {
+				// a tsc recompilation that no build waits for
+				return;
+			}
+			if (this.files != null) {
+				files = this.files;
+			}
+			Timer timer = context.metrics.startPhase(Phase.REFRESH);
 			try {
-				if (fullPass) {
-					Log.info("refreshing worspace (full)");
-					context.project.refreshLocal(IResource.DEPTH_INFINITE, null);
-				} else {
-					// TODO: refresh only the resources that have changed (using
-					// the files argument)
-					Log.info("refreshing output directories (incremental)");
-					final IResource output = context.project
-							.findMember(Preferences.getTsOutputFolder(context.project, context.profile));
-					final IResource jsOutput = context.project
-							.findMember(Preferences.getJsOutputFolder(context.project, context.profile));
-					if (output != null || jsOutput != null) {
-						new Thread() {
-							public void run() {
-								try {
-									if (output != null) {
-										output.refreshLocal(IResource.DEPTH_INFINITE, null);
-									}
-									if (jsOutput != null && !jsOutput.equals(output)) {
-										jsOutput.refreshLocal(IResource.DEPTH_INFINITE, null);
-									}
-								} catch (CoreException e) {
-									Log.error("error while refreshing", e);
-								}
-							}
-						}.start();
+				List<File> outputs = new ArrayList<>();
+				if (files != null) {
+					for (SourceFile file : files) {
+						outputs.addAll(getOutputFiles(context, file));
 					}
 				}
-
+				context.sourceFiles.addSharedOutputs(getSharedOutputFiles(context));
+				timer.addFiles(outputs.size());
+				OutputRefreshJob.refreshFiles(outputs);
+				OutputRefreshJob.refreshFolders(getGeneratedFolders(context, fullPass));
 			} catch (Exception e) {
 				Log.error(e);
+			} finally {
+				timer.close();
+				completion.countDown();
+			}
+		}
+
+		/**
+		 * Waits until tsc is done with the transpiled files, or fails.
+		 *
+		 * @return false if tsc did not complete in time
+		 */
+		boolean awaitCompletion(IProgressMonitor monitor) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + TSC_COMPLETION_TIMEOUT;
+			while (!completion.await(100, TimeUnit.MILLISECONDS)) {
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+				if (System.currentTimeMillis() > deadline) {
+					return false;
+				}
 			}
+			return true;
 		}
 
 	}
 
-	private void addMarker(IResource resource, String message, int lineNumber, int charStart, int charEnd,
-			int severity) {
+	/**
+	 * Full and incremental builds only lock the built project, so that
+	 * independent projects can be built concurrently (see
+	 * {@link WorkspaceBuildScheduler}): markers are applied to the project's
+	 * resources and generated files are refreshed by a separate job. Cleaning
+	 * changes the build path and keeps the default rule.
+	 */
+	@Override
+	public ISchedulingRule getRule(int kind, Map<String, String> args) {
+		return kind == CLEAN_BUILD ? super.getRule(kind, args) : getProject();
+	}
+
+	protected IProject[] build(int kind, Map<String, String> args, IProgressMonitor monitor) throws CoreException {
+		ProjectConfig projectConfig = Preferences.getProjectConfig(getProject());
+		if (kind == AUTO_BUILD) {
+			int debounceDelay = projectConfig.getBuildDebounceDelay();
+			if (debounceDelay > 0) {
+				// the refreshes of the generated files do not need a build
+				IResourceDelta delta = getDelta(getProject());
+				if (delta == null || AutoBuildDebouncer.hasSourceChanges(delta) || hasBuildSettingsChanges(delta)) {
+					JSweetPlugin.getDefault().getAutoBuildDebouncer().request(getProject(), debounceDelay,
+							projectConfig.getBuildMaxStaleness());
+				}
+				// the debounced build gets the changes of this one (and the
+				// ones of a pending build)
+				rememberLastBuiltState();
+				return null;
+			}
+		}
+		final IResourceDelta delta = kind == FULL_BUILD ? null : getDelta(getProject());
+		final boolean settingsChanged = delta != null && hasBuildSettingsChanges(delta);
+		if (settingsChanged) {
+			// the preference nodes may not be notified of external changes
+			Preferences.invalidateProfileConfigs(getProject());
+			JSweetPlugin.getDefault().getClassPathCache().invalidate(getProject());
+			projectConfig = Preferences.getProjectConfig(getProject());
+		}
+		String[] profiles = projectConfig.getProfiles();
+		contexts.keySet().retainAll(Arrays.asList(profiles));
+		JSweetPlugin.getDefault().getTscWatchService().stopAll(getProject(), Arrays.asList(profiles));
+		List<BuildingContext> profileContexts = new ArrayList<>();
+		for (String profile : profiles) {
+			BuildingContext context = contexts.get(profile);
+			if (context == null) {
+				context = new BuildingContext(getProject(), profile);
+				contexts.put(profile, context);
+			}
+			context.projectConfig = projectConfig;
+			profileContexts.add(context);
+		}
+		SubMonitor progress = SubMonitor.convert(monitor, profileContexts.size());
+		int concurrency = Math.min(projectConfig.getProfileConcurrency(), profileContexts.size());
 		try {
-			IMarker marker = resource.createMarker(JSWEET_PROBLEM_MARKER_TYPE);
-			marker.setAttribute(IMarker.MESSAGE, message);
-			marker.setAttribute(IMarker.SEVERITY, severity);
-			if (lineNumber >= 0) {
-				marker.setAttribute(IMarker.LINE_NUMBER, lineNumber);
+			if (concurrency <= 1) {
+				for (BuildingContext context : profileContexts) {
+					progress.subTask("JSweet: building profile '" + context.profile + "'");
+					buildProfile(context, delta, settingsChanged, progress.split(1));
+				}
+			} else {
+				buildProfilesInParallel(profileContexts, delta, settingsChanged, concurrency, progress);
 			}
-			if (charStart >= 0) {
-				marker.setAttribute(IMarker.CHAR_START, charStart);
+			for (File file : removedFiles) {
+				if (!file.exists()) {
+					dependencyIndex.remove(file);
+				}
 			}
-			if (charEnd >= 0) {
-				marker.setAttribute(IMarker.CHAR_END, charEnd);
+			removedFiles.clear();
+			// all the profiles got the changed types
+			dependencyIndex.clearPreviousTypes();
+		} catch (OperationCanceledException e) {
+			// the changes of this build are given again to the next one
+			rememberLastBuiltState();
+			throw e;
+		} finally {
+			applyBuildResults(profileContexts);
+			for (BuildingContext context : profileContexts) {
+				context.sourceFiles.save();
 			}
-		} catch (CoreException e) {
-			Log.error(e);
+			releaseTranspilers(projectConfig);
 		}
+		forceStaticImports();
+		return null;
 	}
 
-	protected IProject[] build(int kind, Map<String, String> args, IProgressMonitor monitor) throws CoreException {
-		// Only full builds are supported for now... incremental builds should
-		// be supported later if possible
-
-		// addResourceChangeListener();
-		// if (!USE_WATCH_MODE || kind == FULL_BUILD) {
-		// fullBuild(monitor);
-		// } else {
-		// IResourceDelta delta = getDelta(getProject());
-		// if (delta == null) {
-		// fullBuild(monitor);
-		// } else {
-		// incrementalBuild(delta, monitor);
-		// }
-		// }
-		for (String profile : Preferences.parseProfiles(getProject())) {
-			fullBuild(new BuildingContext(getProject(), profile), monitor);
+	/**
+	 * Drops the transpilers (and their javac state) of the profiles, right
+	 * away or once the project is idle, depending on the release policy of
+	 * the project. The next build creates them again, and the registered
+	 * source files are kept so that this build stays incremental.
+	 */
+	private void releaseTranspilers(ProjectConfig projectConfig) {
+		String policy = projectConfig.getTranspilerRelease();
+		if (Preferences.COMPILER_TRANSPILER_RELEASE_ALWAYS.equals(policy)) {
+			releaseTranspilers(contexts.values());
+		} else if (Preferences.COMPILER_TRANSPILER_RELEASE_IDLE.equals(policy)) {
+			if (releaseJob == null) {
+				releaseJob = new Job("JSweet: releasing idle transpilers of " + getProject().getName()) {
+					@Override
+					protected IStatus run(IProgressMonitor monitor) {
+						releaseTranspilers(contexts.values());
+						return Status.OK_STATUS;
+					}
+				};
+				releaseJob.setSystem(true);
+				// excludes builds
+				releaseJob.setRule(getProject());
+			}
+			releaseJob.cancel();
+			releaseJob.schedule(projectConfig.getTranspilerIdleTimeout() * 60000L);
 		}
-		forceStaticImports();
-		return null;
+	}
+
+	private static void releaseTranspilers(Collection<BuildingContext> profileContexts) {
+		for (BuildingContext context : profileContexts) {
+			if (context.transpiler != null) {
+				Log.info(Category.TRANSPILER, () -> "releasing JSweet transpiler: " + context.transpiler);
+				if (context.watchMode) {
+					JSweetPlugin.getDefault().getTscWatchService().stop(context.project, context.profile);
+					context.watchMode = false;
+				}
+				context.transpiler = null;
+				context.watchHandler = null;
+				context.transpilerKey = null;
+			}
+		}
+	}
+
+	private void buildProfile(BuildingContext context, IResourceDelta delta, boolean settingsChanged,
+			IProgressMonitor monitor) throws CoreException {
+		context.config = Preferences.getProfileConfig(context.project, context.profile);
+		context.metrics = BuildMetrics.getDefault().startBuild(context.project.getName(), context.profile);
+		try {
+			if (delta == null || settingsChanged || !context.config.equals(context.settings)) {
+				fullBuild(context, monitor);
+			} else {
+				incrementalBuild(context, delta, monitor);
+			}
+		} catch (OperationCanceledException e) {
+			Log.info(Category.BUILD, () -> "JSweet: build of profile '" + context.profile + "' cancelled");
+			context.metrics.setKind("cancelled");
+			// the next build gets the same delta again (or is a full build
+			// if this one was), and the current markers are kept, since the
+			// problems of this build are incomplete
+			context.takeProblems();
+			context.markersToDelete.clear();
+			context.deleteAllMarkers = false;
+			throw e;
+		} finally {
+			BuildMetrics.getDefault().endBuild(context.metrics);
+		}
+	}
+
+	/**
+	 * Builds the given profiles with at most <code>concurrency</code> threads.
+	 * Profiles only touch the workspace through their building context, so
+	 * that markers are applied afterwards by the builder thread
+	 * (which owns the build rule), in the profiles order.
+	 */
+	private void buildProfilesInParallel(List<BuildingContext> profileContexts, final IResourceDelta delta,
+			final boolean settingsChanged, int concurrency, final SubMonitor progress) throws CoreException {
+		ExecutorService executor = getProfileExecutor(concurrency);
+		// the progress monitor cannot be shared by the threads, which only
+		// check for cancellation
+		final IProgressMonitor cancellation = new NullProgressMonitor() {
+			@Override
+			public boolean isCanceled() {
+				return progress.isCanceled();
+			}
+		};
+		List<Future<?>> results = new ArrayList<>();
+		try {
+			for (final BuildingContext context : profileContexts) {
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws CoreException {
+						buildProfile(context, delta, settingsChanged, cancellation);
+						return null;
+					}
+				}));
+			}
+			CoreException error = null;
+			OperationCanceledException cancelled = null;
+			for (int i = 0; i < results.size(); i++) {
+				progress.subTask("JSweet: building profile '" + profileContexts.get(i).profile + "'");
+				try {
+					results.get(i).get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof OperationCanceledException) {
+						cancelled = (OperationCanceledException) e.getCause();
+					} else if (e.getCause() instanceof CoreException) {
+						error = (CoreException) e.getCause();
+					} else {
+						Log.error("error while building profile " + profileContexts.get(i).profile, e.getCause());
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new OperationCanceledException();
+				}
+				progress.worked(1);
+			}
+			if (cancelled != null) {
+				throw cancelled;
+			}
+			if (error != null) {
+				throw error;
+			}
+		} finally {
+			// stops the remaining profiles on cancellation or error
+			for (Future<?> result : results) {
+				result.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Gets the executor of the profile builds, with the given number of
+	 * threads. Its threads are stopped when idle.
+	 */
+	private synchronized ExecutorService getProfileExecutor(int concurrency) {
+		if (profileExecutor == null || profileExecutor.isShutdown()) {
+			profileExecutor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "JSweet profile builder");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			profileExecutor.allowCoreThreadTimeOut(true);
+			profileExecutors.add(profileExecutor);
+		} else if (concurrency > profileExecutor.getMaximumPoolSize()) {
+			profileExecutor.setMaximumPoolSize(concurrency);
+			profileExecutor.setCorePoolSize(concurrency);
+		} else if (concurrency < profileExecutor.getMaximumPoolSize()) {
+			profileExecutor.setCorePoolSize(concurrency);
+			profileExecutor.setMaximumPoolSize(concurrency);
+		}
+		return profileExecutor;
+	}
+
+	/**
+	 * Stops the threads building profiles, when the plugin stops.
+	 */
+	public static void shutdownProfileExecutors() {
+		synchronized (profileExecutors) {
+			for (ExecutorService executor : profileExecutors) {
+				executor.shutdownNow();
+			}
+			profileExecutors.clear();
+		}
+	}
+
+	/**
+	 * Applies the marker changes collected in the building contexts
+	 * during the build, in the profiles order.
+	 */
+	private void applyBuildResults(List<BuildingContext> profileContexts) throws CoreException {
+		boolean deleteAllMarkers = false;
+		Set<IResource> markersToDelete = new LinkedHashSet<>();
+		List<Problem> problems = new ArrayList<>();
+		for (BuildingContext context : profileContexts) {
+			deleteAllMarkers |= context.deleteAllMarkers;
+			markersToDelete.addAll(context.markersToDelete);
+			problems.addAll(context.takeProblems());
+			context.markersToDelete.clear();
+			context.deleteAllMarkers = false;
+		}
+		BuildMetrics.BuildRecord metrics = BuildMetrics.getDefault().startBuild(getProject().getName(), null);
+		metrics.setKind(deleteAllMarkers ? "full" : "incremental");
+		try (Timer timer = metrics.startPhase(Phase.MARKERS)) {
+			timer.addFiles(problems.size());
+			ProblemMarkers.update(getProject(), deleteAllMarkers, markersToDelete, problems, null);
+		} finally {
+			BuildMetrics.getDefault().endBuild(metrics);
+		}
+	}
+
+	/**
+	 * Gets the files generated for the given source file: TypeScript,
+	 * JavaScript, source map and declarations.
+	 */
+	private static List<File> getOutputFiles(BuildingContext context, SourceFile sourceFile) {
+		ProfileConfig config = context.config;
+		List<File> outputs = new ArrayList<>(4);
+		File tsFile = sourceFile.getTsFile();
+		if (tsFile != null) {
+			outputs.add(tsFile);
+			if (config.getDeclaration() && !config.getBundle()) {
+				String declarationDirectory = config.getDeclarationDirectory();
+				String declarationPath = tsFile.getPath().replaceAll("\\.ts$", ".d.ts");
+				if (StringUtils.isBlank(declarationDirectory)) {
+					outputs.add(new File(declarationPath));
+				} else {
+					// tsc mirrors the TypeScript output folder in the
+					// declaration folder
+					File projectDir = context.project.getLocation().toFile();
+					String tsOutPath = new File(projectDir, config.getTsOutputFolder()).getAbsolutePath()
+							+ File.separator;
+					String path = new File(declarationPath).getAbsolutePath();
+					if (path.startsWith(tsOutPath)) {
+						outputs.add(new File(Transpilers.resolveDirectory(projectDir, declarationDirectory),
+								path.substring(tsOutPath.length())));
+					}
+				}
+			}
+		}
+		if (sourceFile.getJsFile() != null) {
+			outputs.add(sourceFile.getJsFile());
+			outputs.add(new File(sourceFile.getJsFile().getPath() + ".map"));
+		}
+		return outputs;
+	}
+
+	/**
+	 * Gets the existing files generated for all the source files of the
+	 * given profile (bundle files).
+	 */
+	private static List<File> getSharedOutputFiles(BuildingContext context) {
+		ProfileConfig config = context.config;
+		List<File> outputs = new ArrayList<>();
+		if (!config.getBundle()) {
+			return outputs;
+		}
+		File projectDir = context.project.getLocation().toFile();
+		String bundleDirectory = config.getBundlesDirectory();
+		File bundleDir = StringUtils.isBlank(bundleDirectory) ? new File(projectDir, config.getJsOutputFolder())
+				: Transpilers.resolveDirectory(projectDir, bundleDirectory);
+		String declarationDirectory = config.getDeclarationDirectory();
+		File declarationDir = StringUtils.isBlank(declarationDirectory) ? bundleDir
+				: Transpilers.resolveDirectory(projectDir, declarationDirectory);
+		for (File file : Arrays.asList(new File(bundleDir, BUNDLE_NAME + ".js"),
+				new File(bundleDir, BUNDLE_NAME + ".js.map"), new File(declarationDir, BUNDLE_NAME + ".d.ts"))) {
+			if (file.isFile()) {
+				outputs.add(file);
+			}
+		}
+		return outputs;
+	}
+
+	/**
+	 * Gets the generated folders that need a deep refresh after a
+	 * transpilation: the folders of the files that are not generated per
+	 * source file (bundles, definitions) and, on full passes, the folders
+	 * where the candies are extracted.
+	 */
+	private static List<File> getGeneratedFolders(BuildingContext context, boolean fullPass) {
+		ProfileConfig config = context.config;
+		File projectDir = context.project.getLocation().toFile();
+		List<File> folders = new ArrayList<>();
+		if (config.getBundle()) {
+			String bundleDirectory = config.getBundlesDirectory();
+			folders.add(StringUtils.isBlank(bundleDirectory)
+					? new File(projectDir, config.getJsOutputFolder())
+					: Transpilers.resolveDirectory(projectDir, bundleDirectory));
+		}
+		String declarationDirectory = config.getDeclarationDirectory();
+		if (config.getDeclaration() && !StringUtils.isBlank(declarationDirectory)) {
+			folders.add(Transpilers.resolveDirectory(projectDir, declarationDirectory));
+		}
+		if (fullPass) {
+			folders.add(new File(projectDir, config.getCandyJsOutputFolder()));
+			folders.add(new File(projectDir,
+					JSweetTranspiler.TMP_WORKING_DIR_NAME + File.separator + CandyProcessor.CANDIES_DIR_NAME));
+		}
+		return folders;
+	}
+
+	/**
+	 * Tells if the given delta touches files that define the build settings
+	 * (Java build path or JSweet preferences), in which case incremental
+	 * builds cannot be trusted.
+	 */
+	private static boolean hasBuildSettingsChanges(IResourceDelta delta) {
+		return delta.findMember(new Path(".classpath")) != null
+				|| delta.findMember(new Path(".settings/" + JSweetPlugin.ID + ".prefs")) != null;
 	}
 
 	private String[] defaultFavorites = { JSweetConfig.LANG_PACKAGE + "." + JSweetConfig.GLOBALS_CLASS_NAME + ".*",
@@ -532,17 +1241,18 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 	private void forceStaticImports() {
 		try {
 			IPreferenceStore s = new ScopedPreferenceStore(InstanceScope.INSTANCE, "org.eclipse.jdt.ui");
-			String favorites = s.getString(PreferenceConstants.CODEASSIST_FAVORITE_STATIC_MEMBERS);
+			StringBuilder favorites = new StringBuilder(
+					s.getString(PreferenceConstants.CODEASSIST_FAVORITE_STATIC_MEMBERS));
 			for (String f : defaultFavorites) {
-				if (!favorites.contains(f)) {
-					if (!favorites.isEmpty()) {
-						favorites += ";";
+				if (favorites.indexOf(f) < 0) {
+					if (favorites.length() > 0) {
+						favorites.append(';');
 					}
-					favorites += f;
+					favorites.append(f);
 				}
 			}
-			Log.info("forcing favorite static members: " + favorites);
-			s.setValue(PreferenceConstants.CODEASSIST_FAVORITE_STATIC_MEMBERS, favorites);
+			Log.info(Category.WORKSPACE, () -> "forcing favorite static members: " + favorites);
+			s.setValue(PreferenceConstants.CODEASSIST_FAVORITE_STATIC_MEMBERS, favorites.toString());
 		} catch (Exception e) {
 			Log.error(e);
 		}
@@ -550,108 +1260,438 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 
 	@Override
 	protected void clean(IProgressMonitor monitor) throws CoreException {
+		contexts.clear();
+		JSweetPlugin.getDefault().getTscWatchService().stopAll(getProject(), Collections.<String> emptyList());
+		dependencyIndex.clear();
+		JSweetPlugin.getDefault().getClassPathCache().invalidate(getProject());
 		clean(getProject(), monitor);
 	}
 
-	private void deleteMarkers(IFile... files) {
-		try {
-			for (IFile file : files) {
-				file.deleteMarkers(JSWEET_PROBLEM_MARKER_TYPE, false, IResource.DEPTH_ZERO);
-			}
-		} catch (CoreException ce) {
-			Log.error(ce);
+	/**
+	 * Tells the watch service how the last transpilation went, so that a
+	 * failed tsc process gets restarted.
+	 */
+	private static void updateWatchMode(BuildingContext context) {
+		TscWatchService watchService = JSweetPlugin.getDefault().getTscWatchService();
+		if (!context.tscFailed) {
+			watchService.succeeded(context.project, context.profile);
+		} else if (!watchService.failed(context.project, context.profile)) {
+			context.watchMode = false;
 		}
 	}
 
-	private void transpileFiles(BuildingContext context, File... files) {
+	/**
+	 * Splits the files to be transpiled into batches (see
+	 * {@link TranspileBatches}).
+	 */
+	private List<List<File>> getBatches(BuildingContext context, List<File> files) throws CoreException {
+		List<List<File>> batches = TranspileBatches.split(files, context.config.getBundle(), context.projectConfig,
+				() -> dependencyIndex, Charset.forName(context.project.getDefaultCharset()), context.metrics);
+		Log.info(Category.TRANSPILER, () -> "transpiling " + files.size() + " file(s) in " + batches.size() + " batches");
+		return batches;
+	}
+
+	/**
+	 * Transpiles the given files, by batches so that the memory used by the
+	 * transpiler stays bounded and the build can be cancelled between two
+	 * batches.
+	 */
+	private void transpileFiles(BuildingContext context, IProgressMonitor monitor, File... files) {
 		try {
 			if (context.transpiler == null || files == null || files.length == 0) {
 				return;
 			}
-			Log.info("compiling " + Arrays.asList(files));
-			SourceFile[] sfs = SourceFile.toSourceFiles(files);
-			for (SourceFile sf : sfs) {
-				context.sourceFiles.put(sf.getJavaFile(), sf);
+			SubMonitor progress = SubMonitor.convert(monitor, files.length);
+			List<File> toTranspile = Arrays.asList(files);
+			OutputCache cache = null;
+			Map<File, String> cacheKeys = new HashMap<>();
+			if (context.transpilerKey != null && context.projectConfig.isOutputCacheEnabled()
+					&& !context.config.getBundle()) {
+				cache = JSweetPlugin.getDefault().getOutputCache();
+				// the cache keys cover the dependencies of the files
+				try (Timer timer = context.metrics.startPhase(Phase.DEPENDENCY_INDEX)) {
+					timer.addFiles(files.length);
+					dependencyIndex.updateAll(Arrays.asList(files),
+							Charset.forName(context.project.getDefaultCharset()));
+				}
+				try (Timer timer = context.metrics.startPhase(Phase.OUTPUT_CACHE)) {
+					timer.addFiles(files.length);
+					toTranspile = restoreCachedOutputs(context, cache, files, cacheKeys);
+				}
+				progress.worked(files.length - toTranspile.size());
+			}
+			for (List<File> batch : getBatches(context, toTranspile)) {
+				transpileBatch(context, cache, cacheKeys, batch, progress.split(batch.size()));
 			}
-			context.transpiler.transpile(new JSweetTranspilationHandler(context), sfs);
+		} catch (OperationCanceledException e) {
+			throw e;
 		} catch (Throwable t) {
 			Log.error("cannot compile", t);
 		}
 	}
 
-	private void fullBuild(BuildingContext context, final IProgressMonitor monitor) throws CoreException {
-		Log.info("JSweet: full build...");
-		context.project.deleteMarkers(JSWEET_PROBLEM_MARKER_TYPE, true, IResource.DEPTH_INFINITE);
-		List<IPath> sourceDirs = new ArrayList<>();
-		if (!StringUtils.isEmpty(Preferences.getSourceFolders(context.project, context.profile))) {
-			String[] names = Preferences.getSourceFolders(context.project, context.profile).split("[,;]");
+	/**
+	 * Transpiles a batch of files. In watch mode, tsc compiles the generated
+	 * files asynchronously, and the batch waits until tsc reports its
+	 * completion, so that its problems and outputs belong to this build.
+	 */
+	private void transpileBatch(BuildingContext context, OutputCache cache, Map<File, String> cacheKeys,
+			final List<File> compiledFiles, IProgressMonitor monitor) throws Exception {
+		Log.info(Category.TRANSPILER, () -> "compiling " + compiledFiles.size() + " file(s)");
+		Log.debug(Category.TRANSPILER, () -> "compiling " + compiledFiles);
+		SourceFile[] sfs = SourceFile.toSourceFiles(compiledFiles);
+		int firstProblem = context.getProblemCount();
+		boolean completed = true;
+		JSweetTranspilationHandler handler = context.watchMode ? context.watchHandler
+				: new JSweetTranspilationHandler(context);
+		handler.open(sfs);
+		try (Timer timer = context.metrics.startPhase(Phase.TRANSPILE)) {
+			timer.addFiles(sfs.length);
+			long start = System.nanoTime();
+			context.tscFailed = false;
 			try {
-				for (String name : names) {
-					sourceDirs.add(context.project.getFolder(name).getFullPath());
+				context.transpiler.transpile(handler, sfs);
+				if (context.watchMode && !handler.awaitCompletion(monitor)) {
+					Log.warning("tsc did not complete in watch mode: " + context.project.getName() + "/"
+							+ context.profile);
+					completed = false;
+					context.tscFailed = true;
 				}
 			} catch (Exception e) {
-				e.printStackTrace();
+				context.tscFailed = true;
+				throw e;
+			} finally {
+				handler.closed = true;
+				// only the paths of the generated files are kept
+				for (SourceFile sf : sfs) {
+					context.sourceFiles.put(sf.getJavaFile(), getOutputFiles(context, sf));
+				}
+				if (context.watchMode) {
+					updateWatchMode(context);
+				}
+			}
+			if (sfs.length == 1) {
+				// the time of a file can only be told apart when it is
+				// transpiled alone
+				context.metrics.addFile(Phase.TRANSPILE, sfs[0].getJavaFile().getPath(), System.nanoTime() - start);
+			}
+		}
+		// the outputs of an incomplete tsc compilation cannot be cached
+		if (cache != null && completed && !context.tscFailed) {
+			try (Timer timer = context.metrics.startPhase(Phase.OUTPUT_CACHE)) {
+				storeCachedOutputs(context, cache, sfs, cacheKeys, context.getProblems(firstProblem));
+			}
+		}
+	}
+
+	/**
+	 * Restores the outputs and problems of the given files from the output
+	 * cache.
+	 *
+	 * @return the files that were not found in the cache and need to be
+	 *         transpiled (their keys are put in the given map)
+	 */
+	private List<File> restoreCachedOutputs(BuildingContext context, OutputCache cache, File[] files,
+			Map<File, String> cacheKeys) {
+		List<File> misses = new ArrayList<>();
+		List<File> restored = new ArrayList<>();
+		File projectDir = context.project.getLocation().toFile();
+		String projectPath = projectDir.getAbsolutePath() + File.separator;
+		// the content hashes of the dependencies, shared by the files
+		Map<File, String> contentHashes = new HashMap<>();
+		for (File file : files) {
+			long start = System.nanoTime();
+			IFile resource = context.project.getWorkspace().getRoot()
+					.getFileForLocation(new Path(file.getAbsolutePath()));
+			String key = null;
+			if (resource != null) {
+				try {
+					SortedMap<String, String> dependencies = new TreeMap<>();
+					for (File dependency : dependencyIndex.getDependencies(file)) {
+						String hash = contentHashes.get(dependency);
+						if (hash == null) {
+							hash = dependency.isFile() ? OutputCache.getContentHash(dependency) : "";
+							contentHashes.put(dependency, hash);
+						}
+						String path = dependency.getAbsolutePath();
+						dependencies.put(path.startsWith(projectPath) ? path.substring(projectPath.length()) : path,
+								hash);
+					}
+					key = cache.getKey(file, resource.getProjectRelativePath().toString(), context.transpilerKey,
+							dependencies);
+				} catch (IOException e) {
+					Log.warning("cannot compute cache key for " + file, e);
+				}
+			}
+			List<OutputCache.Diagnostic> diagnostics = new ArrayList<>();
+			List<File> outputs = key == null ? null : cache.restore(key, projectDir, diagnostics);
+			if (outputs == null) {
+				misses.add(file);
+				if (key != null) {
+					cacheKeys.put(file, key);
+				}
+				continue;
+			}
+			for (OutputCache.Diagnostic diagnostic : diagnostics) {
+				context.addProblem(new Problem(resource, diagnostic.message, diagnostic.lineNumber,
+						diagnostic.charStart, diagnostic.charEnd, diagnostic.severity));
+			}
+			context.sourceFiles.put(file, outputs);
+			restored.addAll(outputs);
+			context.metrics.addFile(Phase.OUTPUT_CACHE, file.getPath(), System.nanoTime() - start);
+		}
+		Log.info(Category.CACHE,
+				() -> "restored " + (files.length - misses.size()) + " file(s) from the output cache");
+		OutputRefreshJob.refreshFiles(restored);
+		return misses;
+	}
+
+	/**
+	 * Stores the outputs and problems of freshly transpiled files in the
+	 * output cache. Nothing is stored when some problems cannot be related to
+	 * a source file, since the outputs may then be incomplete.
+	 */
+	private void storeCachedOutputs(BuildingContext context, OutputCache cache, SourceFile[] sourceFiles,
+			Map<File, String> cacheKeys, List<Problem> problems) {
+		for (Problem problem : problems) {
+			if (!(problem.resource instanceof IFile)) {
+				return;
+			}
+		}
+		File projectDir = context.project.getLocation().toFile();
+		for (SourceFile sourceFile : sourceFiles) {
+			String key = cacheKeys.get(sourceFile.getJavaFile());
+			if (key == null || sourceFile.getTsFile() == null || !sourceFile.getTsFile().exists()) {
+				continue;
+			}
+			List<File> outputs = new ArrayList<>();
+			for (File output : getOutputFiles(context, sourceFile)) {
+				if (output.exists()) {
+					outputs.add(output);
+				}
+			}
+			IFile resource = context.project.getWorkspace().getRoot()
+					.getFileForLocation(new Path(sourceFile.getJavaFile().getAbsolutePath()));
+			List<OutputCache.Diagnostic> diagnostics = new ArrayList<>();
+			for (Problem problem : problems) {
+				if (problem.resource.equals(resource)) {
+					diagnostics.add(new OutputCache.Diagnostic(problem.message, problem.lineNumber,
+							problem.charStart, problem.charEnd, problem.severity));
+				}
+			}
+			cache.store(key, projectDir, outputs, diagnostics);
+		}
+	}
+
+	private void fullBuild(BuildingContext context, final IProgressMonitor monitor) throws CoreException {
+		SubMonitor progress = SubMonitor.convert(monitor, "JSweet: building profile '" + context.profile + "'",
+				100);
+		Log.info(Category.BUILD, "JSweet: full build...");
+		context.metrics.setKind("full");
+		context.deleteAllMarkers = true;
+		// set once the files are transpiled, so that a cancelled full build
+		// is done again
+		context.settings = null;
+		List<IPath> sourceDirs = context.sourceDirs;
+		sourceDirs.clear();
+		if (!StringUtils.isEmpty(context.config.getSourceFolders())) {
+			String[] names = context.config.getSourceFolders().split("[,;]");
+			for (String name : names) {
+				try {
+					sourceDirs.add(context.project.getFolder(name).getFullPath());
+				} catch (Exception e) {
+					Log.warning("ignoring invalid source folder: " + name, e);
+				}
 			}
 		}
-		String jdkHome = null;
-		boolean lookupSourceFolder = sourceDirs.isEmpty();
+		ResolvedClassPath classPath = null;
 		if (context.project.isNatureEnabled("org.eclipse.jdt.core.javanature")) {
-			IJavaProject javaProject = JavaCore.create(context.project);
-			IClasspathEntry[] classPathEntries = javaProject.getResolvedClasspath(true);
-			for (IClasspathEntry e : classPathEntries) {
-				if (lookupSourceFolder && e.getEntryKind() == IClasspathEntry.CPE_SOURCE) {
-					sourceDirs.add(e.getPath());
-				} else if (e.getEntryKind() == IClasspathEntry.CPE_LIBRARY) {
-					if (e.getPath().toString().endsWith("/lib/rt.jar")) {
-						jdkHome = e.getPath().removeLastSegments(2).toString();
+			try (Timer timer = context.metrics.startPhase(Phase.RESOLVE_CLASSPATH)) {
+				classPath = JSweetPlugin.getDefault().getClassPathCache().get(context.project);
+				if (sourceDirs.isEmpty()) {
+					sourceDirs.addAll(classPath.sourceDirs);
+				}
+			}
+		}
+		String jdkHome = classPath == null ? null : classPath.jdkHome;
+		progress.split(5);
+		Log.debug(Category.BUILD, () -> "source dirs: " + sourceDirs);
+		updateSourceFilter(context);
+		updateExcludedDirs(context);
+		List<File> javaFiles;
+		progress.subTask("JSweet: scanning source files");
+		try (Timer timer = context.metrics.startPhase(Phase.SCAN_SOURCES)) {
+			javaFiles = scanSourceFiles(context);
+			timer.addFiles(javaFiles.size());
+		}
+		progress.split(5);
+		// the outputs recorded by the previous builds: the ones that are not
+		// generated again (files not built anymore, changed output
+		// folders or options) are deleted once the files are transpiled
+		Set<File> previousOutputs = new HashSet<>(context.sourceFiles.getOutputFiles());
+		context.sourceFiles.retainAll(javaFiles);
+		// the index must know the files before they change, so that the
+		// incremental builds find the dependents of changed types
+		try (Timer timer = context.metrics.startPhase(Phase.DEPENDENCY_INDEX)) {
+			timer.addFiles(javaFiles.size());
+			dependencyIndex.updateAll(javaFiles, Charset.forName(context.project.getDefaultCharset()));
+		}
+		boolean completed = false;
+		try {
+			try (Timer timer = context.metrics.startPhase(Phase.INIT_CLASSPATH)) {
+				if (Transpilers.initClassPath(jdkHome)) {
+					Log.info(Category.BUILD, () -> "init classpath, jdkHome: " + jdkHome);
+				}
+			}
+			createJSweetTranspiler(context);
+			String candyKey = getCandyKey(context);
+			boolean candiesRestored = candyKey != null && restoreCandies(context, candyKey);
+			progress.split(5);
+			progress.subTask("JSweet: transpiling " + javaFiles.size() + " file(s)");
+			transpileFiles(context, progress.split(85), javaFiles.toArray(new File[0]));
+			completed = true;
+			context.settings = context.config;
+			if (candyKey != null) {
+				try (Timer timer = context.metrics.startPhase(Phase.CANDY_CACHE)) {
+					JSweetPlugin.getDefault().getCandyCache().store(candyKey, getCandiesDir(context));
+					if (!candiesRestored) {
+						// the transpiler extracted the candies with their
+						// JavaScript files
+						FileUtils.writeStringToFile(getExtractedCandyKeyFile(context), candyKey,
+								StandardCharsets.UTF_8);
 					}
+				} catch (IOException e) {
+					Log.warning("cannot record extracted candies", e);
 				}
 			}
+		} finally {
+			// when cancelled, the files not transpiled yet keep their
+			// outputs, but the shared ones may not be generated yet
+			if (completed) {
+				context.sourceFiles.setSharedOutputs(getSharedOutputFiles(context));
+			}
+			previousOutputs.removeAll(context.sourceFiles.getOutputFiles());
+			if (!previousOutputs.isEmpty()) {
+				deleteOutputs(context, new ArrayList<>(previousOutputs));
+			}
 		}
-		Log.info("source dirs: " + sourceDirs);
-		GrabJavaFilesVisitor v = new GrabJavaFilesVisitor(context, sourceDirs);
+	}
 
-		context.project.accept(v);
-		context.sourceFiles.clear();
-		Log.info("init classpath, jdkHome: " + jdkHome);
-		JSweetConfig.initClassPath(jdkHome);
-		createJSweetTranspiler(context);
-		transpileFiles(context, v.javaFiles.toArray(new File[0]));
+	private static File getCandiesDir(BuildingContext context) {
+		return context.project.getLocation()
+				.append(JSweetTranspiler.TMP_WORKING_DIR_NAME + File.separator + CandyProcessor.CANDIES_DIR_NAME)
+				.toFile();
+	}
+
+	/**
+	 * Gets the candy cache key of the project.
+	 *
+	 * @return the key, or null if the candies cannot be cached
+	 */
+	private static String getCandyKey(BuildingContext context) {
+		if (context.transpiler == null || !context.project.isOpen()) {
+			return null;
+		}
+		try (Timer timer = context.metrics.startPhase(Phase.CANDY_CACHE)) {
+			if (!context.project.isNatureEnabled("org.eclipse.jdt.core.javanature")) {
+				return null;
+			}
+			return JSweetPlugin.getDefault().getCandyCache().getKey(
+					JSweetPlugin.getDefault().getClassPathCache().get(context.project).classPath,
+					JSweetPlugin.getDefault().getBundle().getVersion().toString());
+		} catch (Exception e) {
+			Log.warning("cannot compute candy cache key", e);
+			return null;
+		}
 	}
 
-	private class CheckIfRemovedInDelta implements IResourceDeltaVisitor {
-		public boolean result = false;
+	/**
+	 * Restores the candies of the project from the workspace candy cache
+	 * when they are not extracted yet (typically after a clean).
+	 *
+	 * @return true if the candies were restored
+	 */
+	private static boolean restoreCandies(BuildingContext context, String key) {
+		if (!isCandyJsKept(context, key)) {
+			return false;
+		}
+		try (Timer timer = context.metrics.startPhase(Phase.CANDY_CACHE)) {
+			if (JSweetPlugin.getDefault().getCandyCache().restore(key, getCandiesDir(context))) {
+				Log.info(Category.BUILD, () -> "restored candies from the workspace cache: " + key);
+				return true;
+			}
+			return false;
+		}
+	}
 
-		@Override
-		public boolean visit(IResourceDelta delta) throws CoreException {
-			if (delta.getKind() == IResourceDelta.REMOVED) {
-				result = true;
+	/**
+	 * Gets the file recording the key of the candies whose JavaScript files
+	 * were last extracted into the outputs of the given profile.
+	 */
+	private static File getExtractedCandyKeyFile(BuildingContext context) {
+		return getStateFile(context.project, context.profile, "candies", ".key");
+	}
+
+	/**
+	 * Tells if the JavaScript files of the given candies are in the outputs of
+	 * the profile, so that a restored extraction (which the transpiler will
+	 * not extract again) still comes with its JavaScript files. They are if
+	 * the transpiler extracted these candies for the profile before, and
+	 * cleans only delete the recorded outputs (see {@link #cleanFiles}) or
+	 * the candy JavaScript folder is apart from the JavaScript folder.
+	 */
+	private static boolean isCandyJsKept(BuildingContext context, String key) {
+		if (context.config.getNoJs()) {
+			return true;
+		}
+		try {
+			File keyFile = getExtractedCandyKeyFile(context);
+			if (!keyFile.isFile() || !key.equals(FileUtils.readFileToString(keyFile, StandardCharsets.UTF_8))) {
+				return false;
 			}
+		} catch (IOException e) {
+			return false;
+		}
+		if (context.sourceFiles.hasManifest()) {
 			return true;
 		}
+		// without a manifest, cleans delete the JavaScript files found in
+		// the JavaScript folder
+		if (StringUtils.isBlank(context.config.getCandyJsOutputFolder())) {
+			return false;
+		}
+		IPath projectPath = context.project.getLocation();
+		IPath candyJsPath = projectPath.append(context.config.getCandyJsOutputFolder());
+		IPath jsPath = projectPath.append(context.config.getJsOutputFolder());
+		return !jsPath.isPrefixOf(candyJsPath);
 	}
 
 	protected void incrementalBuild(BuildingContext context, IResourceDelta delta, IProgressMonitor monitor)
 			throws CoreException {
 		if (context.project.isNatureEnabled("org.eclipse.jdt.core.javanature")) {
-			Log.info("JSweet: incremental build...");
-			CheckIfRemovedInDelta removed = new CheckIfRemovedInDelta();
-			delta.accept(removed);
-			if (removed.result) {
-				// we should delete only the removed file
-				cleanFiles(context);
-				fullBuild(context, monitor);
-			} else {
-				IJavaProject javaProject = JavaCore.create(context.project);
-				IncrementalGrabJavaFileVisitor v = new IncrementalGrabJavaFileVisitor(javaProject, context);
+			Log.info(Category.BUILD, "JSweet: incremental build...");
+			IncrementalGrabJavaFileVisitor v = new IncrementalGrabJavaFileVisitor(context);
+			try (Timer timer = context.metrics.startPhase(Phase.SCAN_SOURCES)) {
 				delta.accept(v);
-				deleteMarkers(v.javaResourceFiles.toArray(new IFile[0]));
-				context.project.deleteMarkers(JSWEET_PROBLEM_MARKER_TYPE, true, IResource.DEPTH_ZERO);
-				if (context.transpiler == null) {
-					createJSweetTranspiler(context);
-				}
-				transpileFiles(context, v.javaFiles.toArray(new File[0]));
+				v.grabDependents();
+				timer.addFiles(v.javaFiles.size());
+			}
+			if (v.stateMissing) {
+				Log.info(Category.BUILD, "JSweet: unknown removed file, falling back to a full build");
+				deleteRegisteredOutputs(context);
+				fullBuild(context, monitor);
+				return;
+			}
+			OutputRefreshJob.refreshFiles(v.deletedOutputs);
+			if (v.javaFiles.isEmpty()) {
+				return;
+			}
+			context.markersToDelete.addAll(v.javaResourceFiles);
+			context.markersToDelete.add(context.project);
+			if (context.transpiler == null) {
+				createJSweetTranspiler(context);
 			}
+			transpileFiles(context, monitor, v.javaFiles.toArray(new File[0]));
 		} else {
 			// no support for incremental build
 			fullBuild(context, monitor);
@@ -659,85 +1699,54 @@ public class JSweetBuilder extends IncrementalProjectBuilder {
 
 	}
 
+	/**
+	 * Gets the class path of the given context's project, as given to the
+	 * transpiler.
+	 */
+	private static String getClassPath(BuildingContext context) throws CoreException {
+		if (!context.project.isNatureEnabled("org.eclipse.jdt.core.javanature")) {
+			return "";
+		}
+		try (Timer timer = context.metrics.startPhase(Phase.RESOLVE_CLASSPATH)) {
+			return JSweetPlugin.getDefault().getClassPathCache().get(context.project).classPath;
+		}
+	}
+
+	/**
+	 * Creates the transpiler of the given context, or keeps the current one
+	 * when it was created for the same settings and class path.
+	 */
 	private void createJSweetTranspiler(BuildingContext context) throws CoreException {
-		if (context.USE_WATCH_MODE && context.transpiler != null) {
-			Log.info("stopping tsc watch mode");
-			context.transpiler.setTscWatchMode(false);
-			Log.info("tsc watch mode stopped");
+		String classPath = getClassPath(context);
+		boolean watchMode = context.projectConfig.isTscWatchModeEnabled();
+		String transpilerKey = context.config + "|" + watchMode + "|" + classPath;
+		if (context.transpiler != null && transpilerKey.equals(context.transpilerKey)) {
+			Log.info(Category.TRANSPILER, () -> "reusing JSweet transpiler: " + context.transpiler);
+			return;
 		}
-		StringBuilder classPath = new StringBuilder();
-		if (context.project.isNatureEnabled("org.eclipse.jdt.core.javanature")) {
-			IJavaProject javaProject = JavaCore.create(context.project);
-			IClasspathEntry[] classPathEntries = javaProject.getResolvedClasspath(true);
-			for (IClasspathEntry e : classPathEntries) {
-				classPath.append(resolve(context.project, e.getPath()).toString());
-				classPath.append(File.pathSeparator);
-			}
+		TscWatchService watchService = JSweetPlugin.getDefault().getTscWatchService();
+		if (context.watchMode) {
+			watchService.stop(context.project, context.profile);
+			context.watchMode = false;
 		}
-		Log.info("compiling with classpath: " + classPath.toString());
-		File jsOutputFolder = new File(context.project.getLocation().toFile(),
-				Preferences.getJsOutputFolder(context.project, context.profile));
-		try {
-			JSweetFactory factory = new JSweetFactory();
-			context.transpiler = new JSweetTranspiler(factory,
-					new File(context.project.getLocation().toFile(), JSweetTranspiler.TMP_WORKING_DIR_NAME),
-					new File(context.project.getLocation().toFile(),
-							Preferences.getTsOutputFolder(context.project, context.profile)),
-					jsOutputFolder,
-					new File(context.project.getLocation().toFile(),
-							Preferences.getCandyJsOutputFolder(context.project, context.profile)),
-					classPath.toString());
-			context.transpiler.setGenerateJsFiles(!Preferences.getNoJs(context.project, context.profile));
-			context.transpiler
-					.setPreserveSourceLineNumbers(Preferences.isJavaDebugMode(context.project, context.profile));
-			String moduleString = Preferences.getModuleKind(context.project, context.profile);
-			context.transpiler.setModuleKind(
-					StringUtils.isBlank(moduleString) ? ModuleKind.none : ModuleKind.valueOf(moduleString));
-			String bundleDirectory = Preferences.getBundlesDirectory(context.project, context.profile);
-			if (!StringUtils.isBlank(bundleDirectory) && Preferences.getBundle(context.project, context.profile)) {
-				File f = new File(bundleDirectory);
-				if (!f.isAbsolute()) {
-					f = new File(context.project.getLocation().toFile(), bundleDirectory);
-				}
-				context.transpiler.setJsOutputDir(f);
-			}
-			context.transpiler.setBundle(Preferences.getBundle(context.project, context.profile));
-			context.transpiler.setGenerateDeclarations(Preferences.getDeclaration(context.project, context.profile));
-			String declarationDirectory = Preferences.getDeclarationDirectory(context.project, context.profile);
-			if (!StringUtils.isBlank(declarationDirectory)) {
-				File f = new File(declarationDirectory);
-				if (!f.isAbsolute()) {
-					f = new File(context.project.getLocation().toFile(), declarationDirectory);
-				}
-				context.transpiler.setDeclarationsOutputDir(f);
-			}
-
-			// transpiler.setTsDefDirs(new
-			// File(context.project.getLocation().toFile(),
-			// Preferences
-			// .getTsOutputFolder(context.project)));
-			if (context.USE_WATCH_MODE) {
-				context.transpiler.setTscWatchMode(true);
-			}
-			Log.info("created JSweet transpiler: " + context.transpiler);
+		context.transpiler = null;
+		context.watchHandler = null;
+		context.transpilerKey = null;
+		Log.debug(Category.TRANSPILER, () -> "compiling with classpath: " + classPath);
+		try (Timer timer = context.metrics.startPhase(Phase.CREATE_TRANSPILER)) {
+			context.transpiler = Transpilers.create(context.config, context.project.getLocation().toFile(),
+					classPath);
+			if (watchMode) {
+				watchService.start(context.project, context.profile, context.transpiler);
+				context.watchMode = true;
+				context.watchHandler = new JSweetTranspilationHandler(context);
+			}
+			context.transpilerKey = transpilerKey;
+			Log.info(Category.TRANSPILER, () -> "created JSweet transpiler: " + context.transpiler);
 		} catch (NoClassDefFoundError error) {
 			new JSweetTranspilationHandler(context).report(JSweetProblem.JAVA_COMPILER_NOT_FOUND, null,
 					JSweetProblem.JAVA_COMPILER_NOT_FOUND.getMessage());
 		}
 	}
 
-	private static File resolve(IProject project, IPath path) {
-		String string = path.toString();
-		if (path.isAbsolute()) {
-			File f = new File(string);
-			if (f.exists()) {
-				return f;
-			} else {
-				return new File(project.getWorkspace().getRoot().getLocation().toFile(), string);
-			}
-		} else {
-			return new File(project.getLocation().toFile(), string);
-		}
-	}
-
 }
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.jsweet.plugin.Log;
+
+/**
+ * A content-addressed cache of the files generated for Java source files.
+ * <p>
+ * Entries are keyed by a hash of the Java source content, its path and a
+ * fingerprint of the settings and class path it was transpiled with, so that
+ * sources which get a new timestamp but keep the same content (for instance
+ * when switching branches) do not need to be transpiled again. An entry holds
+ * a copy of the generated files and the problems reported for the source.
+ */
+public class OutputCache {
+
+	private static final String ENTRY_FILE_NAME = "entry.properties";
+
+	private static final int MAX_ENTRIES = 20000;
+
+	private static final int TRIM_PERIOD = 1000;
+
+	/**
+	 * A problem reported for a cached source file.
+	 */
+	public static class Diagnostic {
+		public final String message;
+		public final int lineNumber;
+		public final int charStart;
+		public final int charEnd;
+		public final int severity;
+
+		public Diagnostic(String message, int lineNumber, int charStart, int charEnd, int severity) {
+			this.message = message;
+			this.lineNumber = lineNumber;
+			this.charStart = charStart;
+			this.charEnd = charEnd;
+			this.severity = severity;
+		}
+	}
+
+	private final File directory;
+
+	private final AtomicInteger storeCount = new AtomicInteger();
+
+	public OutputCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Computes the cache key of a Java source file. The outputs of a file
+	 * also depend on the types it uses, so the key covers the contents of the
+	 * files declaring them.
+	 *
+	 * @param javaFile
+	 *            the source file
+	 * @param path
+	 *            the project-relative path of the source file
+	 * @param fingerprint
+	 *            the settings and class path the file is transpiled with
+	 * @param dependencies
+	 *            the project-relative paths of the files the source file
+	 *            depends on, with their content hashes (see
+	 *            {@link #getContentHash(File)})
+	 */
+	public String getKey(File javaFile, String path, String fingerprint, SortedMap<String, String> dependencies)
+			throws IOException {
+		MessageDigest digest = newDigest();
+		digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(path.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		update(digest, javaFile);
+		for (Map.Entry<String, String> dependency : dependencies.entrySet()) {
+			digest.update((byte) 0);
+			digest.update(dependency.getKey().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(dependency.getValue().getBytes(StandardCharsets.UTF_8));
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Computes the hash of the contents of a file.
+	 */
+	public static String getContentHash(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		update(digest, file);
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static void update(MessageDigest digest, File file) throws IOException {
+		byte[] buffer = new byte[8192];
+		try (InputStream in = new FileInputStream(file)) {
+			int count;
+			while ((count = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, count);
+			}
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private File getEntryDirectory(String key) {
+		return new File(new File(directory, key.substring(0, 2)), key);
+	}
+
+	/**
+	 * Restores the files of a cache entry.
+	 *
+	 * @param key
+	 *            the entry key
+	 * @param baseDir
+	 *            the directory the generated files are relative to
+	 * @param diagnostics
+	 *            receives the problems reported when the entry was stored
+	 * @return the restored files, or null if there is no such entry
+	 */
+	public List<File> restore(String key, File baseDir, List<Diagnostic> diagnostics) {
+		File entryDir = getEntryDirectory(key);
+		File entryFile = new File(entryDir, ENTRY_FILE_NAME);
+		if (!entryFile.isFile()) {
+			return null;
+		}
+		try {
+			Properties entry = new Properties();
+			try (InputStream in = new FileInputStream(entryFile)) {
+				entry.load(in);
+			}
+			List<File> outputs = new ArrayList<>();
+			for (int i = 0; entry.containsKey("output." + i); i++) {
+				File output = new File(baseDir, entry.getProperty("output." + i));
+				FileUtils.copyFile(new File(entryDir, "output." + i), output);
+				outputs.add(output);
+			}
+			for (int i = 0; entry.containsKey("problem." + i + ".message"); i++) {
+				String prefix = "problem." + i + ".";
+				diagnostics.add(new Diagnostic(entry.getProperty(prefix + "message"),
+						Integer.parseInt(entry.getProperty(prefix + "line")),
+						Integer.parseInt(entry.getProperty(prefix + "start")),
+						Integer.parseInt(entry.getProperty(prefix + "end")),
+						Integer.parseInt(entry.getProperty(prefix + "severity"))));
+			}
+			// keeps recently used entries when trimming
+			entryFile.setLastModified(System.currentTimeMillis());
+			return outputs;
+		} catch (Exception e) {
+			Log.warning("cannot restore cache entry " + key, e);
+			FileUtils.deleteQuietly(entryDir);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a cache entry, replacing any existing entry with the same key.
+	 *
+	 * @param key
+	 *            the entry key
+	 * @param baseDir
+	 *            the directory the generated files are relative to
+	 * @param outputs
+	 *            the generated files (must be located in the base directory)
+	 * @param diagnostics
+	 *            the problems reported for the source file
+	 */
+	public void store(String key, File baseDir, List<File> outputs, List<Diagnostic> diagnostics) {
+		File entryDir = getEntryDirectory(key);
+		// the entry is written aside and then moved, so that concurrent
+		// builds never see a partial entry
+		File tmpDir = new File(directory, "tmp-" + UUID.randomUUID());
+		try {
+			Properties entry = new Properties();
+			String base = baseDir.getAbsolutePath() + File.separator;
+			for (int i = 0; i < outputs.size(); i++) {
+				String path = outputs.get(i).getAbsolutePath();
+				if (!path.startsWith(base)) {
+					return;
+				}
+				entry.setProperty("output." + i, path.substring(base.length()));
+				FileUtils.copyFile(outputs.get(i), new File(tmpDir, "output." + i));
+			}
+			for (int i = 0; i < diagnostics.size(); i++) {
+				Diagnostic diagnostic = diagnostics.get(i);
+				String prefix = "problem." + i + ".";
+				entry.setProperty(prefix + "message", diagnostic.message);
+				entry.setProperty(prefix + "line", String.valueOf(diagnostic.lineNumber));
+				entry.setProperty(prefix + "start", String.valueOf(diagnostic.charStart));
+				entry.setProperty(prefix + "end", String.valueOf(diagnostic.charEnd));
+				entry.setProperty(prefix + "severity", String.valueOf(diagnostic.severity));
+			}
+			tmpDir.mkdirs();
+			try (OutputStream out = new FileOutputStream(new File(tmpDir, ENTRY_FILE_NAME))) {
+				entry.store(out, null);
+			}
+			FileUtils.deleteQuietly(entryDir);
+			entryDir.getParentFile().mkdirs();
+			Files.move(tmpDir.toPath(), entryDir.toPath());
+			if (storeCount.incrementAndGet() % TRIM_PERIOD == 0) {
+				trim(MAX_ENTRIES);
+			}
+		} catch (Exception e) {
+			Log.warning("cannot store cache entry " + key, e);
+		} finally {
+			FileUtils.deleteQuietly(tmpDir);
+		}
+	}
+
+	/**
+	 * Removes the least recently used entries so that the cache holds at
+	 * most the given number of entries.
+	 */
+	public void trim(int maxEntries) {
+		List<File> entries = new ArrayList<>();
+		File[] buckets = directory.listFiles();
+		if (buckets == null) {
+			return;
+		}
+		for (File bucket : buckets) {
+			File[] bucketEntries = bucket.listFiles();
+			if (bucketEntries != null && !bucket.getName().startsWith("tmp-")) {
+				entries.addAll(Arrays.asList(bucketEntries));
+			}
+		}
+		if (entries.size() <= maxEntries) {
+			return;
+		}
+		entries.sort(Comparator.comparingLong(entry -> new File(entry, ENTRY_FILE_NAME).lastModified()));
+		for (File entry : entries.subList(0, entries.size() - maxEntries)) {
+			FileUtils.deleteQuietly(entry);
+		}
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public void clear() {
+		FileUtils.deleteQuietly(directory);
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.jsweet.plugin.Log;
+import org.jsweet.plugin.Log.Category;
+
+/**
+ * Refreshes the files generated by the transpiler. Refresh requests are
+ * accumulated (possibly from several threads and profiles) and applied by a
+ * single workspace job, which only refreshes the requested files, plus the
+ * newly created output folders.
+ */
+public class OutputRefreshJob extends WorkspaceJob {
+
+	private static final long REFRESH_DELAY = 100;
+
+	private static OutputRefreshJob instance;
+
+	private Set<File> files = new LinkedHashSet<>();
+
+	private Set<File> folders = new LinkedHashSet<>();
+
+	private OutputRefreshJob() {
+		super("JSweet: refreshing generated files");
+		setSystem(true);
+		setRule(ResourcesPlugin.getWorkspace().getRoot());
+	}
+
+	/**
+	 * Gets the refresh job, or null if the workspace is closed (in which case
+	 * there is nothing to refresh).
+	 */
+	private static synchronized OutputRefreshJob getInstance() {
+		if (instance == null) {
+			try {
+				instance = new OutputRefreshJob();
+			} catch (IllegalStateException e) {
+				Log.debug(Category.WORKSPACE, () -> "workspace is closed: generated files are not refreshed");
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Requests a refresh of the given generated files.
+	 */
+	public static void refreshFiles(Collection<File> files) {
+		OutputRefreshJob job;
+		if (files.isEmpty() || (job = getInstance()) == null) {
+			return;
+		}
+		synchronized (job) {
+			job.files.addAll(files);
+		}
+		job.schedule(REFRESH_DELAY);
+	}
+
+	/**
+	 * Requests a refresh of the given folders and of their contents.
+	 */
+	public static void refreshFolders(Collection<File> folders) {
+		OutputRefreshJob job;
+		if (folders.isEmpty() || (job = getInstance()) == null) {
+			return;
+		}
+		synchronized (job) {
+			job.folders.addAll(folders);
+		}
+		job.schedule(REFRESH_DELAY);
+	}
+
+	@Override
+	public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException {
+		Set<File> files;
+		Set<File> folders;
+		synchronized (this) {
+			files = this.files;
+			folders = this.folders;
+			this.files = new LinkedHashSet<>();
+			this.folders = new LinkedHashSet<>();
+		}
+		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+		Set<IResource> deepRefreshes = new LinkedHashSet<>();
+		for (File folder : folders) {
+			IContainer container = root.getContainerForLocation(new Path(folder.getAbsolutePath()));
+			if (container != null) {
+				deepRefreshes.add(getTopMostMissing(container));
+			}
+		}
+		Set<IResource> refreshes = new LinkedHashSet<>();
+		for (File file : files) {
+			IFile resource = root.getFileForLocation(new Path(file.getAbsolutePath()));
+			if (resource == null) {
+				continue;
+			}
+			if (resource.getParent().exists()) {
+				refreshes.add(resource);
+			} else {
+				// new folders must be refreshed with their contents
+				deepRefreshes.add(getTopMostMissing(resource.getParent()));
+			}
+		}
+		SubMonitor progress = SubMonitor.convert(monitor, deepRefreshes.size() + refreshes.size());
+		Log.info(Category.WORKSPACE, () -> "refreshing " + refreshes.size() + " generated file(s) and "
+				+ deepRefreshes.size() + " folder(s)");
+		for (IResource resource : deepRefreshes) {
+			resource.refreshLocal(IResource.DEPTH_INFINITE, progress.newChild(1));
+		}
+		for (IResource resource : refreshes) {
+			if (!isCovered(resource, deepRefreshes)) {
+				resource.refreshLocal(IResource.DEPTH_ZERO, progress.newChild(1));
+			}
+		}
+		return Status.OK_STATUS;
+	}
+
+	private static IResource getTopMostMissing(IResource resource) {
+		while (!resource.exists() && resource.getParent() != null && !resource.getParent().exists()) {
+			resource = resource.getParent();
+		}
+		return resource;
+	}
+
+	private static boolean isCovered(IResource resource, Set<IResource> deepRefreshes) {
+		for (IResource container : deepRefreshes) {
+			if (container.getFullPath().isPrefixOf(resource.getFullPath())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.jsweet.plugin.Log;
+import org.jsweet.plugin.Log.Category;
+import org.jsweet.plugin.builder.JSweetBuilder.Problem;
+
+/**
+ * Turns the problems reported during a build into JSweet problem markers.
+ * <p>
+ * All the marker changes are done in a single workspace operation, so that
+ * only one resource change notification is fired. The existing markers of the
+ * rebuilt resources are diffed against the new problems: markers for problems
+ * that are still there are kept, and only the obsolete markers are deleted.
+ */
+public class ProblemMarkers {
+
+	private static final String[] ATTRIBUTE_NAMES = { IMarker.MESSAGE, IMarker.SEVERITY, IMarker.LINE_NUMBER,
+			IMarker.CHAR_START, IMarker.CHAR_END };
+
+	private ProblemMarkers() {
+	}
+
+	/**
+	 * Updates the JSweet markers of a project.
+	 *
+	 * @param project
+	 *            the built project
+	 * @param wholeProject
+	 *            true if the whole project was rebuilt (all the existing
+	 *            markers are then candidates for deletion)
+	 * @param rebuiltResources
+	 *            the rebuilt resources, when the whole project was not
+	 *            rebuilt
+	 * @param problems
+	 *            the problems reported by the build
+	 */
+	public static void update(final IProject project, final boolean wholeProject,
+			final Collection<IResource> rebuiltResources, final List<Problem> problems, IProgressMonitor monitor)
+			throws CoreException {
+		final IWorkspace workspace = project.getWorkspace();
+		workspace.run(new IWorkspaceRunnable() {
+			@Override
+			public void run(IProgressMonitor monitor) throws CoreException {
+				// markers that will be deleted unless they match a problem
+				Map<String, Deque<IMarker>> obsoleteMarkers = new HashMap<>();
+				if (wholeProject) {
+					addMarkers(obsoleteMarkers, project.findMarkers(JSweetBuilder.JSWEET_PROBLEM_MARKER_TYPE, true,
+							IResource.DEPTH_INFINITE));
+				} else {
+					for (IResource resource : rebuiltResources) {
+						if (resource.exists()) {
+							addMarkers(obsoleteMarkers, resource.findMarkers(JSweetBuilder.JSWEET_PROBLEM_MARKER_TYPE,
+									true, IResource.DEPTH_ZERO));
+						}
+					}
+				}
+				// markers of resources that were not rebuilt, which are kept
+				Map<String, Deque<IMarker>> otherMarkers = new HashMap<>();
+				Set<IResource> otherResources = new HashSet<>();
+				Set<String> reported = new HashSet<>();
+				int kept = 0;
+				int created = 0;
+				for (Problem problem : problems) {
+					String key = getKey(problem);
+					if (!reported.add(key) || !problem.resource.exists()) {
+						continue;
+					}
+					if (!wholeProject && !rebuiltResources.contains(problem.resource)
+							&& otherResources.add(problem.resource)) {
+						addMarkers(otherMarkers, problem.resource
+								.findMarkers(JSweetBuilder.JSWEET_PROBLEM_MARKER_TYPE, true, IResource.DEPTH_ZERO));
+					}
+					if (poll(obsoleteMarkers, key) != null || poll(otherMarkers, key) != null) {
+						kept++;
+						continue;
+					}
+					IMarker marker = problem.resource.createMarker(JSweetBuilder.JSWEET_PROBLEM_MARKER_TYPE);
+					marker.setAttributes(ATTRIBUTE_NAMES,
+							new Object[] { problem.message, problem.severity,
+									problem.lineNumber >= 0 ? problem.lineNumber : null,
+									problem.charStart >= 0 ? problem.charStart : null,
+									problem.charEnd >= 0 ? problem.charEnd : null });
+					created++;
+				}
+				List<IMarker> deleted = new ArrayList<>();
+				for (Deque<IMarker> markers : obsoleteMarkers.values()) {
+					deleted.addAll(markers);
+				}
+				if (!deleted.isEmpty()) {
+					workspace.deleteMarkers(deleted.toArray(new IMarker[deleted.size()]));
+				}
+				int createdCount = created;
+				int keptCount = kept;
+				Log.info(Category.WORKSPACE, () -> "markers: " + createdCount + " created, " + keptCount + " kept, "
+						+ deleted.size() + " deleted");
+			}
+		}, project, IWorkspace.AVOID_UPDATE, monitor);
+	}
+
+	private static void addMarkers(Map<String, Deque<IMarker>> map, IMarker[] markers) throws CoreException {
+		for (IMarker marker : markers) {
+			String key = getKey(marker);
+			Deque<IMarker> sameMarkers = map.get(key);
+			if (sameMarkers == null) {
+				sameMarkers = new ArrayDeque<>();
+				map.put(key, sameMarkers);
+			}
+			sameMarkers.add(marker);
+		}
+	}
+
+	private static IMarker poll(Map<String, Deque<IMarker>> map, String key) {
+		Deque<IMarker> markers = map.get(key);
+		if (markers == null) {
+			return null;
+		}
+		IMarker marker = markers.poll();
+		if (markers.isEmpty()) {
+			map.remove(key);
+		}
+		return marker;
+	}
+
+	private static String getKey(Problem problem) {
+		return getKey(problem.resource, problem.message, problem.severity, problem.lineNumber, problem.charStart,
+				problem.charEnd);
+	}
+
+	private static String getKey(IMarker marker) throws CoreException {
+		Object[] values = marker.getAttributes(ATTRIBUTE_NAMES);
+		return getKey(marker.getResource(), (String) values[0], toInt(values[1]), toInt(values[2]),
+				toInt(values[3]), toInt(values[4]));
+	}
+
+	private static int toInt(Object value) {
+		return value instanceof Integer ? (Integer) value : -1;
+	}
+
+	private static String getKey(IResource resource, String message, int severity, int lineNumber, int charStart,
+			int charEnd) {
+		return resource.getFullPath() + "\0" + severity + "\0" + lineNumber + "\0" + charStart + "\0" + charEnd
+				+ "\0" + message;
+	}
+
+}
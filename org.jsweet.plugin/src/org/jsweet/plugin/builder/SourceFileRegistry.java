@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jsweet.plugin.Log;
+
+/**
+ * The source files transpiled for a profile, with the files generated for
+ * them.
+ * <p>
+ * Unlike the transpiler's source files, which reference the transpiler's
+ * state, entries only hold interned paths relative to the project directory,
+ * so that the registry stays small for large projects.
+ * <p>
+ * When it has a manifest file, the registry is loaded from it and saved to it
+ * after the builds, so that the generated files are known across sessions and
+ * can be deleted without looking them up in the output folders. The manifest
+ * holds one line per source file: its path followed by the paths of its
+ * outputs, separated by tabs. A line with an empty source path lists the
+ * outputs that are not generated for a single source file (bundles).
+ */
+public class SourceFileRegistry {
+
+	private static final String[] NO_OUTPUTS = new String[0];
+
+	private static final String MANIFEST_HEADER = "# JSweet output manifest";
+
+	private final File baseDir;
+
+	private final String basePath;
+
+	private final File manifestFile;
+
+	// relative Java file path -> relative output paths
+	private final Map<String, String[]> outputs = new HashMap<>();
+
+	// the relative paths of the outputs generated for all the source files
+	private final Set<String> sharedOutputs = new LinkedHashSet<>();
+
+	// true when the registry differs from its manifest
+	private boolean modified = false;
+
+	public SourceFileRegistry(File baseDir) {
+		this(baseDir, null);
+	}
+
+	/**
+	 * Creates a registry that is persisted in the given manifest file, and
+	 * loads it if it exists.
+	 */
+	public SourceFileRegistry(File baseDir, File manifestFile) {
+		this.baseDir = baseDir;
+		this.basePath = baseDir.getAbsolutePath() + File.separator;
+		this.manifestFile = manifestFile;
+		if (manifestFile != null && manifestFile.isFile()) {
+			load();
+		}
+	}
+
+	private String toRelativePath(File file) {
+		String path = file.getAbsolutePath();
+		return (path.startsWith(basePath) ? path.substring(basePath.length()) : path).intern();
+	}
+
+	private File toFile(String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(baseDir, path);
+	}
+
+	/**
+	 * Registers a source file and the files generated for it.
+	 */
+	public synchronized void put(File javaFile, Collection<File> generatedFiles) {
+		String[] paths = generatedFiles.isEmpty() ? NO_OUTPUTS : new String[generatedFiles.size()];
+		int i = 0;
+		for (File file : generatedFiles) {
+			paths[i++] = toRelativePath(file);
+		}
+		outputs.put(toRelativePath(javaFile), paths);
+		modified = true;
+	}
+
+	/**
+	 * Registers files generated for all the source files at once (bundles).
+	 */
+	public synchronized void addSharedOutputs(Collection<File> generatedFiles) {
+		for (File file : generatedFiles) {
+			modified |= sharedOutputs.add(toRelativePath(file));
+		}
+	}
+
+	/**
+	 * Replaces the files registered as generated for all the source files.
+	 */
+	public synchronized void setSharedOutputs(Collection<File> generatedFiles) {
+		Set<String> paths = new LinkedHashSet<>();
+		for (File file : generatedFiles) {
+			paths.add(toRelativePath(file));
+		}
+		if (!paths.equals(sharedOutputs)) {
+			sharedOutputs.clear();
+			sharedOutputs.addAll(paths);
+			modified = true;
+		}
+	}
+
+	public synchronized boolean contains(File javaFile) {
+		return outputs.containsKey(toRelativePath(javaFile));
+	}
+
+	/**
+	 * Unregisters a source file.
+	 *
+	 * @return the files that were generated for the source file (null if it
+	 *         was not registered)
+	 */
+	public synchronized List<File> remove(File javaFile) {
+		String[] paths = outputs.remove(toRelativePath(javaFile));
+		if (paths == null) {
+			return null;
+		}
+		modified = true;
+		List<File> files = new ArrayList<>(paths.length);
+		for (String path : paths) {
+			files.add(toFile(path));
+		}
+		return files;
+	}
+
+	/**
+	 * Unregisters the source files that are not in the given ones.
+	 *
+	 * @return the files that were generated for the unregistered source files
+	 */
+	public synchronized List<File> retainAll(Collection<File> javaFiles) {
+		Set<String> retained = new LinkedHashSet<>(javaFiles.size());
+		for (File file : javaFiles) {
+			retained.add(toRelativePath(file));
+		}
+		List<File> files = new ArrayList<>();
+		for (String path : new ArrayList<>(outputs.keySet())) {
+			if (!retained.contains(path)) {
+				for (String output : outputs.remove(path)) {
+					files.add(toFile(output));
+				}
+				modified = true;
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Gets all the registered generated files, including the shared ones.
+	 */
+	public synchronized List<File> getOutputFiles() {
+		List<File> files = new ArrayList<>();
+		for (String[] paths : outputs.values()) {
+			for (String path : paths) {
+				files.add(toFile(path));
+			}
+		}
+		for (String path : sharedOutputs) {
+			files.add(toFile(path));
+		}
+		return files;
+	}
+
+	/**
+	 * Gets the registered source files.
+	 */
+	public synchronized List<File> getJavaFiles() {
+		List<File> files = new ArrayList<>(outputs.size());
+		for (String path : outputs.keySet()) {
+			files.add(toFile(path));
+		}
+		return files;
+	}
+
+	public synchronized int size() {
+		return outputs.size();
+	}
+
+	public synchronized void clear() {
+		modified |= !outputs.isEmpty() || !sharedOutputs.isEmpty();
+		outputs.clear();
+		sharedOutputs.clear();
+	}
+
+	/**
+	 * Tells if the registry is persisted and was saved at least once, in
+	 * which case it knows all the files generated for its profile.
+	 */
+	public boolean hasManifest() {
+		return manifestFile != null && manifestFile.isFile();
+	}
+
+	private void load() {
+		try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\t", -1);
+				String[] paths = fields.length == 1 ? NO_OUTPUTS : new String[fields.length - 1];
+				for (int i = 1; i < fields.length; i++) {
+					paths[i - 1] = fields[i].intern();
+				}
+				if (fields[0].isEmpty()) {
+					sharedOutputs.addAll(Arrays.asList(paths));
+				} else {
+					outputs.put(fields[0].intern(), paths);
+				}
+			}
+		} catch (IOException e) {
+			Log.warning("cannot read output manifest " + manifestFile, e);
+			outputs.clear();
+			sharedOutputs.clear();
+		}
+	}
+
+	/**
+	 * Saves the registry to its manifest file if it changed since it was
+	 * loaded or last saved. The manifest is written aside and then moved, so
+	 * that it is never left partially written.
+	 */
+	public synchronized void save() {
+		if (manifestFile == null || (!modified && manifestFile.isFile())) {
+			return;
+		}
+		File tmpFile = new File(manifestFile.getPath() + ".tmp");
+		try {
+			manifestFile.getParentFile().mkdirs();
+			try (BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+				writer.write(MANIFEST_HEADER);
+				writer.newLine();
+				for (Map.Entry<String, String[]> entry : outputs.entrySet()) {
+					writeLine(writer, entry.getKey(), entry.getValue());
+				}
+				if (!sharedOutputs.isEmpty()) {
+					writeLine(writer, "", sharedOutputs.toArray(NO_OUTPUTS));
+				}
+			}
+			try {
+				Files.move(tmpFile.toPath(), manifestFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			modified = false;
+		} catch (IOException e) {
+			Log.warning("cannot write output manifest " + manifestFile, e);
+			tmpFile.delete();
+		}
+	}
+
+	private static void writeLine(BufferedWriter writer, String javaPath, String[] paths) throws IOException {
+		writer.write(javaPath);
+		for (String path : paths) {
+			writer.write('\t');
+			writer.write(path);
+		}
+		writer.newLine();
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The compiled include/exclude filters of a profile, which select the source
+ * files to be transpiled.
+ * <p>
+ * Filters apply to source paths relative to their source folder, using '/' as
+ * separator. A filter is a regular expression, unless it starts with
+ * <code>glob:</code>, in which case it is a glob as defined by
+ * {@link java.nio.file.FileSystem#getPathMatcher(String)}. An optional
+ * <code>regex:</code> prefix is also accepted.
+ */
+public class SourceFilter {
+
+	public static final String GLOB_PREFIX = "glob:";
+
+	public static final String REGEX_PREFIX = "regex:";
+
+	/**
+	 * A filter that includes nothing.
+	 */
+	public static final SourceFilter NONE = new SourceFilter(null, null, new PathFilter() {
+		@Override
+		public boolean matches(String path) {
+			return false;
+		}
+
+		@Override
+		public boolean mayMatchUnder(String folder) {
+			return false;
+		}
+	}, null);
+
+	private interface PathFilter {
+		boolean matches(String path);
+
+		/**
+		 * Returns false if no path in the given folder can match.
+		 */
+		boolean mayMatchUnder(String folder);
+	}
+
+	private static class RegexFilter implements PathFilter {
+		private final Pattern pattern;
+
+		public RegexFilter(String regex) {
+			this.pattern = Pattern.compile(regex);
+		}
+
+		@Override
+		public boolean matches(String path) {
+			return pattern.matcher(path).matches();
+		}
+
+		@Override
+		public boolean mayMatchUnder(String folder) {
+			Matcher matcher = pattern.matcher(folder + "/");
+			// when the end of the input was not hit, no longer input can match
+			return matcher.matches() || matcher.hitEnd();
+		}
+	}
+
+	private static class GlobFilter implements PathFilter {
+		private final PathMatcher matcher;
+		// the part of the glob before the first special character
+		private final String literalPrefix;
+
+		public GlobFilter(String glob) {
+			this.matcher = FileSystems.getDefault().getPathMatcher(GLOB_PREFIX + glob);
+			int index = StringUtils.indexOfAny(glob, "*?[{\\");
+			this.literalPrefix = index < 0 ? glob : glob.substring(0, index);
+		}
+
+		@Override
+		public boolean matches(String path) {
+			return matcher.matches(Paths.get(path));
+		}
+
+		@Override
+		public boolean mayMatchUnder(String folder) {
+			String prefix = folder + "/";
+			return prefix.startsWith(literalPrefix) || literalPrefix.startsWith(prefix);
+		}
+	}
+
+	private final String includeFilter;
+	private final String excludeFilter;
+	private final PathFilter include;
+	private final PathFilter exclude;
+
+	private SourceFilter(String includeFilter, String excludeFilter, PathFilter include, PathFilter exclude) {
+		this.includeFilter = includeFilter;
+		this.excludeFilter = excludeFilter;
+		this.include = include;
+		this.exclude = exclude;
+	}
+
+	/**
+	 * Compiles the given filters.
+	 *
+	 * @param includeFilter
+	 *            the include filter (blank to include all files)
+	 * @param excludeFilter
+	 *            the exclude filter (blank to exclude no files)
+	 * @throws IllegalArgumentException
+	 *             if a filter is not valid
+	 */
+	public static SourceFilter compile(String includeFilter, String excludeFilter) {
+		return new SourceFilter(includeFilter, excludeFilter, compile(includeFilter), compile(excludeFilter));
+	}
+
+	private static PathFilter compile(String filter) {
+		if (StringUtils.isBlank(filter)) {
+			return null;
+		}
+		if (filter.startsWith(GLOB_PREFIX)) {
+			return new GlobFilter(filter.substring(GLOB_PREFIX.length()));
+		}
+		if (filter.startsWith(REGEX_PREFIX)) {
+			return new RegexFilter(filter.substring(REGEX_PREFIX.length()));
+		}
+		return new RegexFilter(filter);
+	}
+
+	/**
+	 * Tells if this filter was compiled from the given filters.
+	 */
+	public boolean isCompiledFrom(String includeFilter, String excludeFilter) {
+		return this != NONE && Objects.equals(this.includeFilter, includeFilter)
+				&& Objects.equals(this.excludeFilter, excludeFilter);
+	}
+
+	/**
+	 * Tells if the given source file is included.
+	 */
+	public boolean isIncluded(String path) {
+		return (include == null || include.matches(path)) && (exclude == null || !exclude.matches(path));
+	}
+
+	/**
+	 * Tells if the given folder may contain included source files. When it
+	 * returns false, the folder does not need to be visited.
+	 */
+	public boolean mayIncludeUnder(String folder) {
+		return include == null || include.mayMatchUnder(folder);
+	}
+
+}
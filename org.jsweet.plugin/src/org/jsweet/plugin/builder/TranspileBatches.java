@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.jsweet.plugin.builder.BuildMetrics.BuildRecord;
+import org.jsweet.plugin.builder.BuildMetrics.Phase;
+import org.jsweet.plugin.builder.BuildMetrics.Timer;
+import org.jsweet.plugin.preferences.ProjectConfig;
+
+/**
+ * Splits a set of source files into batches transpiled one after the other,
+ * so that the memory used by the transpiler (mostly the javac trees and
+ * symbols of the batch) stays bounded for very large projects.
+ * <p>
+ * Batches are made of whole groups of files (see
+ * {@link DependencyIndex#getHierarchyGroups(List)}), so that a type is always
+ * transpiled with its subtypes and supertypes. A batch is closed when it
+ * reaches the maximum number of files or when the estimated memory of its
+ * files exceeds the heap budget. A group larger than these limits makes a
+ * batch on its own.
+ */
+public class TranspileBatches {
+
+	// a rough estimate of the heap used by the transpiler per byte of Java
+	// source (javac trees, symbols and generated code)
+	static final int HEAP_PER_SOURCE_BYTE = 40;
+
+	private TranspileBatches() {
+	}
+
+	/**
+	 * Gets the estimated heap needed to transpile the given file.
+	 */
+	static long estimateHeap(File file) {
+		return file.length() * HEAP_PER_SOURCE_BYTE;
+	}
+
+	/**
+	 * Splits the files of a profile into batches, bounded by the batch
+	 * preferences of the project. Bundles are transpiled at once, and the
+	 * files are only grouped by type hierarchy when they do not fit in a
+	 * single batch.
+	 *
+	 * @param dependencyIndex
+	 *            the index the files are grouped with (it indexes the files
+	 *            if needed), only got when the files are grouped
+	 * @param metrics
+	 *            the build record the grouping time is added to
+	 */
+	public static List<List<File>> split(List<File> files, boolean bundle, ProjectConfig projectConfig,
+			Supplier<DependencyIndex> dependencyIndex, Charset charset, BuildRecord metrics) {
+		int maxFiles = projectConfig.getTranspileBatchSize();
+		if (maxFiles <= 0) {
+			maxFiles = Integer.MAX_VALUE;
+		}
+		long maxHeap = projectConfig.getTranspileBatchHeap() * 1024L * 1024L;
+		if (maxHeap <= 0) {
+			maxHeap = Long.MAX_VALUE;
+		}
+		if (bundle || fitInOneBatch(files, maxFiles, maxHeap)) {
+			return Collections.singletonList(files);
+		}
+		List<List<File>> groups;
+		try (Timer timer = metrics.startPhase(Phase.DEPENDENCY_INDEX)) {
+			timer.addFiles(files.size());
+			DependencyIndex index = dependencyIndex.get();
+			index.updateAll(files, charset);
+			groups = index.getHierarchyGroups(files);
+		}
+		return split(groups, maxFiles, maxHeap);
+	}
+
+	private static boolean fitInOneBatch(List<File> files, int maxFiles, long maxHeap) {
+		if (files.size() > maxFiles) {
+			return false;
+		}
+		long heap = 0;
+		for (File file : files) {
+			heap += estimateHeap(file);
+		}
+		return heap <= maxHeap;
+	}
+
+	/**
+	 * Packs groups of files into batches.
+	 *
+	 * @param groups
+	 *            the groups of files that must be transpiled together
+	 * @param maxFiles
+	 *            the maximum number of files of a batch
+	 * @param maxHeap
+	 *            the maximum estimated heap (in bytes) of a batch
+	 */
+	public static List<List<File>> split(List<List<File>> groups, int maxFiles, long maxHeap) {
+		List<List<File>> batches = new ArrayList<>();
+		List<File> batch = new ArrayList<>();
+		long batchHeap = 0;
+		for (List<File> group : groups) {
+			long groupHeap = 0;
+			for (File file : group) {
+				groupHeap += estimateHeap(file);
+			}
+			if (!batch.isEmpty()
+					&& (batch.size() + group.size() > maxFiles || batchHeap + groupHeap > maxHeap)) {
+				batches.add(batch);
+				batch = new ArrayList<>();
+				batchHeap = 0;
+			}
+			batch.addAll(group);
+			batchHeap += groupHeap;
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+
+}
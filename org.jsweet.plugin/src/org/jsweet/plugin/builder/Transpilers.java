@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jsweet.JSweetConfig;
+import org.jsweet.plugin.preferences.ProfileConfig;
+import org.jsweet.transpiler.JSweetFactory;
+import org.jsweet.transpiler.JSweetTranspiler;
+import org.jsweet.transpiler.ModuleKind;
+
+/**
+ * Creates the JSweet transpilers for the profiles of a project.
+ * <p>
+ * This class does not depend on the Eclipse workspace, so that the builder
+ * and the headless builder (see {@link HeadlessBuilder}) transpile with the
+ * same settings.
+ */
+public class Transpilers {
+
+	// the folder name that is never looked up for source files
+	public static final String NODE_MODULES = "node_modules";
+
+	// the JDK homes the JSweet class path has been initialized with (guarded
+	// by the JSweetConfig class, since the class path is global)
+	private static final Set<File> initializedJdkHomes = new HashSet<>();
+
+	private Transpilers() {
+	}
+
+	/**
+	 * Initializes the JSweet class path for the given JDK, once per JDK home
+	 * for the whole VM, so that the builds of all the projects (and
+	 * profiles) using the same JDK share the initialization.
+	 *
+	 * @param jdkHome
+	 *            the JDK home, or null for the running JDK
+	 * @return true if the class path has been initialized by this call, false
+	 *         if it was already initialized for this JDK
+	 */
+	public static boolean initClassPath(String jdkHome) {
+		File key = jdkHome == null ? null : new File(jdkHome).getAbsoluteFile();
+		// the JSweet class path is global, so it must not be initialized
+		// concurrently
+		synchronized (JSweetConfig.class) {
+			if (!initializedJdkHomes.add(key)) {
+				return false;
+			}
+			try {
+				JSweetConfig.initClassPath(jdkHome);
+			} catch (RuntimeException e) {
+				initializedJdkHomes.remove(key);
+				throw e;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Creates a transpiler configured with the given profile configuration.
+	 *
+	 * @param config
+	 *            the profile configuration
+	 * @param projectDir
+	 *            the project directory, which relative output folders are
+	 *            resolved against
+	 * @param classPath
+	 *            the class path of the transpiled sources
+	 */
+	public static JSweetTranspiler create(ProfileConfig config, File projectDir, String classPath) {
+		JSweetTranspiler transpiler = new JSweetTranspiler(new JSweetFactory(),
+				new File(projectDir, JSweetTranspiler.TMP_WORKING_DIR_NAME),
+				new File(projectDir, config.getTsOutputFolder()), new File(projectDir, config.getJsOutputFolder()),
+				new File(projectDir, config.getCandyJsOutputFolder()), classPath);
+		transpiler.setGenerateJsFiles(!config.getNoJs());
+		transpiler.setPreserveSourceLineNumbers(config.isJavaDebugMode());
+		String moduleString = config.getModuleKind();
+		transpiler.setModuleKind(StringUtils.isBlank(moduleString) ? ModuleKind.none : ModuleKind.valueOf(moduleString));
+		String bundleDirectory = config.getBundlesDirectory();
+		if (!StringUtils.isBlank(bundleDirectory) && config.getBundle()) {
+			transpiler.setJsOutputDir(resolveDirectory(projectDir, bundleDirectory));
+		}
+		transpiler.setBundle(config.getBundle());
+		transpiler.setGenerateDeclarations(config.getDeclaration());
+		String declarationDirectory = config.getDeclarationDirectory();
+		if (!StringUtils.isBlank(declarationDirectory)) {
+			transpiler.setDeclarationsOutputDir(resolveDirectory(projectDir, declarationDirectory));
+		}
+		return transpiler;
+	}
+
+	/**
+	 * Gets the folders written by the transpiler for the given profile: its
+	 * working directory and its output folders, which are not looked up for
+	 * source files (unless they contain a source folder).
+	 */
+	public static List<File> getOutputDirectories(ProfileConfig config, File projectDir) {
+		List<String> directories = new ArrayList<>(Arrays.asList(JSweetTranspiler.TMP_WORKING_DIR_NAME,
+				config.getTsOutputFolder(), config.getJsOutputFolder(), config.getCandyJsOutputFolder()));
+		if (config.getBundle()) {
+			directories.add(config.getBundlesDirectory());
+		}
+		if (config.getDeclaration()) {
+			directories.add(config.getDeclarationDirectory());
+		}
+		List<File> files = new ArrayList<>();
+		for (String directory : directories) {
+			if (!StringUtils.isBlank(directory)) {
+				files.add(resolveDirectory(projectDir, directory));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Resolves a directory given in the preferences, which is absolute or
+	 * relative to the project directory.
+	 */
+	public static File resolveDirectory(File projectDir, String directory) {
+		File f = new File(directory);
+		if (!f.isAbsolute()) {
+			f = new File(projectDir, directory);
+		}
+		return f;
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.jsweet.plugin.Log;
+import org.jsweet.plugin.Log.Category;
+import org.jsweet.transpiler.JSweetTranspiler;
+
+/**
+ * The TypeScript compilers kept running between builds, one per project and
+ * profile.
+ * <p>
+ * In watch mode, a transpiler keeps its tsc process alive and tsc recompiles
+ * the TypeScript files incrementally as JSweet writes them, instead of being
+ * launched on each build to check the whole program again. This service owns
+ * these processes: a watcher is stopped when its transpiler is replaced, when
+ * its project is cleaned or its profile removed, and when the plugin stops
+ * (see {@link #stopAll()}). A watcher whose tsc process failed is restarted on
+ * the next transpilation, unless it failed too many times in a row.
+ */
+public class TscWatchService {
+
+	// the consecutive failures after which a watcher is given up
+	private static final int MAX_RESTARTS = 3;
+
+	private static class Watcher {
+		final JSweetTranspiler transpiler;
+		int failures = 0;
+
+		Watcher(JSweetTranspiler transpiler) {
+			this.transpiler = transpiler;
+		}
+	}
+
+	private final Map<String, Watcher> watchers = new HashMap<>();
+
+	private static String getKey(IProject project, String profile) {
+		return project.getName() + "/" + profile;
+	}
+
+	/**
+	 * Starts the watch mode of the given transpiler, which becomes the
+	 * watcher of the given project and profile (the previous one, if any, is
+	 * stopped).
+	 */
+	public synchronized void start(IProject project, String profile, JSweetTranspiler transpiler) {
+		String key = getKey(project, profile);
+		Watcher previous = watchers.put(key, new Watcher(transpiler));
+		if (previous != null && previous.transpiler != transpiler) {
+			stop(key, previous);
+		}
+		Log.info(Category.TRANSPILER, () -> "starting tsc watch mode: " + key);
+		transpiler.setTscWatchMode(true);
+	}
+
+	/**
+	 * Stops the watcher of the given project and profile, if any.
+	 */
+	public synchronized void stop(IProject project, String profile) {
+		String key = getKey(project, profile);
+		Watcher watcher = watchers.remove(key);
+		if (watcher != null) {
+			stop(key, watcher);
+		}
+	}
+
+	/**
+	 * Stops the watchers of the given project, but the ones of the given
+	 * profiles.
+	 */
+	public synchronized void stopAll(IProject project, List<String> keptProfiles) {
+		String prefix = project.getName() + "/";
+		for (Iterator<Map.Entry<String, Watcher>> i = watchers.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String, Watcher> entry = i.next();
+			if (entry.getKey().startsWith(prefix)
+					&& !keptProfiles.contains(entry.getKey().substring(prefix.length()))) {
+				i.remove();
+				stop(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Stops all the watchers (when the plugin stops).
+	 */
+	public void stopAll() {
+		List<Map.Entry<String, Watcher>> stopped;
+		synchronized (this) {
+			stopped = new ArrayList<>(watchers.entrySet());
+			watchers.clear();
+		}
+		for (Map.Entry<String, Watcher> entry : stopped) {
+			stop(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Tells that the last transpilation of the given project and profile
+	 * succeeded.
+	 */
+	public synchronized void succeeded(IProject project, String profile) {
+		Watcher watcher = watchers.get(getKey(project, profile));
+		if (watcher != null) {
+			watcher.failures = 0;
+		}
+	}
+
+	/**
+	 * Tells that the tsc process of the given project and profile failed.
+	 *
+	 * @return true if the watcher will be restarted by the next
+	 *         transpilation, false if it was given up and stopped (the
+	 *         transpiler shall then be used without watch mode)
+	 */
+	public synchronized boolean failed(IProject project, String profile) {
+		String key = getKey(project, profile);
+		Watcher watcher = watchers.get(key);
+		if (watcher == null) {
+			return false;
+		}
+		if (++watcher.failures > MAX_RESTARTS) {
+			Log.warning("tsc watch mode failed " + MAX_RESTARTS + " times, giving up: " + key);
+			watchers.remove(key);
+			stop(key, watcher);
+			return false;
+		}
+		Log.warning("tsc watch mode failed, restarting: " + key);
+		watcher.transpiler.resetTscWatchMode();
+		return true;
+	}
+
+	private static void stop(String key, Watcher watcher) {
+		Log.info(Category.TRANSPILER, () -> "stopping tsc watch mode: " + key);
+		try {
+			watcher.transpiler.setTscWatchMode(false);
+		} catch (Exception e) {
+			Log.error("cannot stop tsc watch mode: " + key, e);
+		}
+	}
+
+}
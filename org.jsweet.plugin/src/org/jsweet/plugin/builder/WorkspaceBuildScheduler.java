@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.builder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.jsweet.plugin.JSweetPlugin;
+import org.jsweet.plugin.Log;
+import org.jsweet.plugin.Log.Category;
+
+/**
+ * Builds several JSweet projects in the order of their dependencies, building
+ * the independent projects concurrently.
+ * <p>
+ * The dependency graph is computed from the projects required by the Java
+ * projects. A project is built in its own job (the builder only locks the
+ * project, see {@link JSweetBuilder#getRule(int, Map)}) once all the projects
+ * it requires are built, and at most
+ * <code>workers</code> projects are built at the same time. Projects involved
+ * in a dependency cycle are built after the others, one at a time. The
+ * project jobs report their progress in a progress group, and are cancelled
+ * when the scheduler is cancelled.
+ */
+public class WorkspaceBuildScheduler extends Job {
+
+	// the time between two checks of the cancellation
+	private static final long POLL_PERIOD = 200;
+
+	private final List<IProject> projects;
+
+	private final boolean clean;
+
+	private final int workers;
+
+	/**
+	 * Creates a scheduler.
+	 *
+	 * @param projects
+	 *            the projects to be built (projects that are closed or do not
+	 *            have the JSweet nature are ignored)
+	 * @param clean
+	 *            true to clean the projects before building them
+	 * @param workers
+	 *            the maximum number of projects built concurrently
+	 */
+	public WorkspaceBuildScheduler(List<IProject> projects, boolean clean, int workers) {
+		super(clean ? "JSweet: rebuild" : "JSweet: build");
+		this.projects = projects;
+		this.clean = clean;
+		this.workers = Math.max(1, workers);
+	}
+
+	/**
+	 * Gets the dependencies of the given projects, restricted to these
+	 * projects.
+	 *
+	 * @return the projects required by each project, in the given projects
+	 *         order
+	 */
+	static Map<IProject, List<IProject>> getDependencies(List<IProject> projects) {
+		Map<String, IProject> projectsByName = new HashMap<>();
+		for (IProject project : projects) {
+			projectsByName.put(project.getName(), project);
+		}
+		Map<IProject, List<IProject>> dependencies = new LinkedHashMap<>();
+		for (IProject project : projects) {
+			List<IProject> required = new ArrayList<>();
+			try {
+				if (project.hasNature(JavaCore.NATURE_ID)) {
+					IJavaProject javaProject = JavaCore.create(project);
+					for (String name : javaProject.getRequiredProjectNames()) {
+						IProject requiredProject = projectsByName.get(name);
+						if (requiredProject != null && requiredProject != project) {
+							required.add(requiredProject);
+						}
+					}
+				}
+			} catch (CoreException e) {
+				Log.warning("cannot get the projects required by " + project.getName(), e);
+			}
+			dependencies.put(project, required);
+		}
+		return dependencies;
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		List<IProject> jsweetProjects = new ArrayList<>();
+		for (IProject project : projects) {
+			try {
+				if (project.isOpen() && project.hasNature(JSweetNature.ID)) {
+					jsweetProjects.add(project);
+				}
+			} catch (CoreException e) {
+				Log.error(e);
+			}
+		}
+		SubMonitor progress = SubMonitor.convert(monitor, (clean ? 2 : 1) * jsweetProjects.size());
+		MultiStatus status = new MultiStatus(JSweetPlugin.ID, IStatus.OK, getName() + " failed", null);
+		if (clean) {
+			// cleaning touches the build path, so it is not done concurrently
+			for (IProject project : jsweetProjects) {
+				if (progress.isCanceled()) {
+					return Status.CANCEL_STATUS;
+				}
+				try {
+					project.build(IncrementalProjectBuilder.CLEAN_BUILD, JSweetBuilder.ID, null,
+							progress.newChild(1));
+				} catch (CoreException e) {
+					status.add(e.getStatus());
+				}
+			}
+		}
+		Map<IProject, List<IProject>> dependencies = getDependencies(jsweetProjects);
+		Map<IProject, List<IProject>> dependents = new HashMap<>();
+		Map<IProject, Integer> pendingDependencies = new HashMap<>();
+		LinkedList<IProject> ready = new LinkedList<>();
+		for (Map.Entry<IProject, List<IProject>> entry : dependencies.entrySet()) {
+			for (IProject required : entry.getValue()) {
+				dependents.computeIfAbsent(required, p -> new ArrayList<>()).add(entry.getKey());
+			}
+			pendingDependencies.put(entry.getKey(), entry.getValue().size());
+			if (entry.getValue().isEmpty()) {
+				ready.add(entry.getKey());
+			}
+		}
+		BlockingQueue<IProject> built = new LinkedBlockingQueue<>();
+		int remaining = jsweetProjects.size();
+		Map<IProject, Job> running = new HashMap<>();
+		boolean cancelled = false;
+		IProgressMonitor group = Job.getJobManager().createProgressGroup();
+		group.beginTask(getName(), jsweetProjects.size());
+		try {
+			while (remaining > 0) {
+				if (!progress.isCanceled()) {
+					if (ready.isEmpty() && running.isEmpty()) {
+						// only cycles are left: builds the first remaining
+						// project as if its dependencies were built
+						for (IProject project : dependencies.keySet()) {
+							if (pendingDependencies.get(project) > 0) {
+								Log.warning("dependency cycle involving " + project.getName());
+								pendingDependencies.put(project, 0);
+								ready.add(project);
+								break;
+							}
+						}
+					}
+					while (running.size() < workers && !ready.isEmpty()) {
+						IProject project = ready.removeFirst();
+						running.put(project, scheduleBuild(project, built, status, group));
+					}
+				} else if (running.isEmpty()) {
+					return Status.CANCEL_STATUS;
+				} else if (!cancelled) {
+					// the running builds stop at their next cancellation
+					// check
+					for (Job job : running.values()) {
+						job.cancel();
+					}
+					cancelled = true;
+				}
+				IProject project = built.poll(POLL_PERIOD, TimeUnit.MILLISECONDS);
+				if (project == null) {
+					continue;
+				}
+				running.remove(project);
+				remaining--;
+				progress.worked(1);
+				List<IProject> projectDependents = dependents.get(project);
+				if (projectDependents != null) {
+					for (IProject dependent : projectDependents) {
+						int pending = pendingDependencies.get(dependent) - 1;
+						pendingDependencies.put(dependent, pending);
+						if (pending == 0) {
+							ready.add(dependent);
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			for (Job job : running.values()) {
+				job.cancel();
+			}
+			return Status.CANCEL_STATUS;
+		} finally {
+			group.done();
+		}
+		return status.isOK() ? Status.OK_STATUS : status;
+	}
+
+	private Job scheduleBuild(final IProject project, final BlockingQueue<IProject> built, final MultiStatus status,
+			IProgressMonitor group) {
+		Log.info(Category.BUILD, () -> "scheduling build of " + project.getName());
+		Job job = new Job("JSweet: building " + project.getName()) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					project.build(IncrementalProjectBuilder.FULL_BUILD, JSweetBuilder.ID, null, monitor);
+					return Status.OK_STATUS;
+				} catch (CoreException e) {
+					return e.getStatus();
+				}
+			}
+		};
+		job.addJobChangeListener(new JobChangeAdapter() {
+			@Override
+			public void done(IJobChangeEvent event) {
+				if (!event.getResult().isOK() && event.getResult().getSeverity() != IStatus.CANCEL) {
+					synchronized (status) {
+						status.add(event.getResult());
+					}
+				}
+				built.add(project);
+			}
+		});
+		job.setProgressGroup(group, 1);
+		job.schedule();
+		return job;
+	}
+
+}
@@ -15,6 +15,7 @@ import org.eclipse.jface.preference.ComboFieldEditor;
 import org.eclipse.jface.preference.FieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.preference.RadioGroupFieldEditor;
 import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.jface.util.PropertyChangeEvent;
@@ -97,7 +98,7 @@ public final class JSweetPreferencePage extends FieldEditorProjectPreferencePage
 	private void applyProfile(String profile) {
 		currentProfile = profile;
 		for (Entry<String, FieldEditor> entry : fieldMap.entrySet()) {
-			if (Preferences.PROFILES().equals(entry.getKey())) {
+			if (Preferences.isProjectPreference(entry.getKey())) {
 				continue;
 			}
 			entry.getValue().setPreferenceName(Preferences.getProfilePrefix(currentProfile) + entry.getKey());
@@ -107,6 +108,47 @@ public final class JSweetPreferencePage extends FieldEditorProjectPreferencePage
 
 	@Override
 	protected void createFieldEditors() {
+		IntegerFieldEditor profileConcurrency = new IntegerFieldEditor(Preferences.PROFILE_CONCURRENCY(),
+				"Profiles built in parallel", this.getFieldEditorParent());
+		profileConcurrency.setValidRange(1, 16);
+		this.addField(profileConcurrency);
+		this.addField(new BooleanFieldEditor(Preferences.OUTPUT_CACHE(),
+				"Reuse cached outputs of unchanged Java sources", this.getFieldEditorParent()));
+		this.addField(new BooleanFieldEditor(Preferences.TSC_WATCH_MODE(),
+				"Keep the TypeScript compiler running between builds", this.getFieldEditorParent()));
+		IntegerFieldEditor debounceDelay = new IntegerFieldEditor(Preferences.BUILD_DEBOUNCE_DELAY(),
+				"Auto-build delay after the last change (ms)", this.getFieldEditorParent());
+		debounceDelay.setValidRange(0, 60000);
+		this.addField(debounceDelay);
+		IntegerFieldEditor maxStaleness = new IntegerFieldEditor(Preferences.BUILD_MAX_STALENESS(),
+				"Maximum auto-build delay (ms)", this.getFieldEditorParent());
+		maxStaleness.setValidRange(0, 600000);
+		this.addField(maxStaleness);
+		IntegerFieldEditor batchSize = new IntegerFieldEditor(Preferences.TRANSPILE_BATCH_SIZE(),
+				"Files transpiled at once (0 for no limit)", this.getFieldEditorParent());
+		batchSize.setValidRange(0, 1000000);
+		this.addField(batchSize);
+		IntegerFieldEditor batchHeap = new IntegerFieldEditor(Preferences.TRANSPILE_BATCH_HEAP(),
+				"Estimated heap of the files transpiled at once (MB, 0 for no limit)", this.getFieldEditorParent());
+		batchHeap.setValidRange(0, 65536);
+		this.addField(batchHeap);
+		this.addField(new ComboFieldEditor(Preferences.TRANSPILER_RELEASE(), "Release the transpiler memory",
+				new String[][] { { "once the project is idle", Preferences.COMPILER_TRANSPILER_RELEASE_IDLE },
+						{ "after each build", Preferences.COMPILER_TRANSPILER_RELEASE_ALWAYS },
+						{ "never", Preferences.COMPILER_TRANSPILER_RELEASE_KEEP } },
+				this.getFieldEditorParent()));
+		IntegerFieldEditor idleTimeout = new IntegerFieldEditor(Preferences.TRANSPILER_IDLE_TIMEOUT(),
+				"Idle time before releasing the transpiler (minutes)", this.getFieldEditorParent());
+		idleTimeout.setValidRange(1, 1440);
+		this.addField(idleTimeout);
+
+		if (!this.isPropertyPage()) {
+			IntegerFieldEditor buildWorkers = new IntegerFieldEditor(Preferences.BUILD_WORKERS(),
+					"Projects built in parallel (workspace rebuilds)", this.getFieldEditorParent());
+			buildWorkers.setValidRange(1, 32);
+			this.addField(buildWorkers);
+		}
+
 		if (this.isPropertyPage()) {
 			this.addField(profileSelector = new ListSelectorFieldEditor(Preferences.PROFILES(), "Profile",
 					getFieldEditorParent()));
@@ -171,9 +213,9 @@ public final class JSweetPreferencePage extends FieldEditorProjectPreferencePage
 		this.addField(new StringFieldEditor(Preferences.SOURCE_FOLDERS(DEFAULT_PROFILE_NAME),
 				"Source folders (project ones if empty)", this.getFieldEditorParent()));
 		this.addField(new StringFieldEditor(Preferences.SOURCE_INCLUDE_FILTER(DEFAULT_PROFILE_NAME),
-				"Include filter (regexp)", this.getFieldEditorParent()));
+				"Include filter (regexp, or glob:pattern)", this.getFieldEditorParent()));
 		this.addField(new StringFieldEditor(Preferences.SOURCE_EXCLUDE_FILTER(DEFAULT_PROFILE_NAME),
-				"Exclude filter (regexp)", this.getFieldEditorParent()));
+				"Exclude filter (regexp, or glob:pattern)", this.getFieldEditorParent()));
 		this.addField(new StringFieldEditor(Preferences.TS_OUTPUT_FOLDER(DEFAULT_PROFILE_NAME),
 				"Generated TypeScript folder", this.getFieldEditorParent()));
 		this.addField(new BooleanFieldEditor(Preferences.NO_JS(DEFAULT_PROFILE_NAME),
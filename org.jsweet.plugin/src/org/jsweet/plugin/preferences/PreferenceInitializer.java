@@ -15,7 +15,7 @@
  */
 package org.jsweet.plugin.preferences;
 
-import static org.jsweet.plugin.preferences.Preferences.DEFAULT_PROFILE_NAME;
+import java.util.Map;
 
 import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
 import org.eclipse.jface.preference.IPreferenceStore;
@@ -28,10 +28,9 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 
 	public void initializeDefaultPreferences() {
 		IPreferenceStore store = JSweetPlugin.getDefault().getPreferenceStore();
-		store.setDefault(Preferences.PROFILES(), "default");
-		store.setDefault(Preferences.TS_OUTPUT_FOLDER(DEFAULT_PROFILE_NAME), ".generated");
-		store.setDefault(Preferences.JS_OUTPUT_FOLDER(DEFAULT_PROFILE_NAME), "js");
-		store.setDefault(Preferences.DEBUG_MODE(DEFAULT_PROFILE_NAME), Preferences.COMPILER_DEBUG_MODE_JAVA);
+		for (Map.Entry<String, String> entry : ProfileConfig.getDefaultValues().entrySet()) {
+			store.setDefault(entry.getKey(), entry.getValue());
+		}
 	}
 
 }
@@ -15,9 +15,21 @@
  */
 package org.jsweet.plugin.preferences;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.ProjectScope;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.IPreferenceChangeListener;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.PreferenceChangeEvent;
+import org.eclipse.core.runtime.preferences.InstanceScope;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.jsweet.plugin.JSweetPlugin;
 
 /**
  * Constant definitions for plug-in preferences
@@ -30,36 +42,160 @@ public class Preferences {
 
 	public static final String COMPILER_DEBUG_MODE_TYPESCRIPT = "ts";
 
-	private static final String COMPILER_PROFILES = "compiler.profiles";
+	public static final String COMPILER_TRANSPILER_RELEASE_KEEP = "keep";
+
+	public static final String COMPILER_TRANSPILER_RELEASE_IDLE = "idle";
+
+	public static final String COMPILER_TRANSPILER_RELEASE_ALWAYS = "always";
+
+	static final String COMPILER_PROFILES = "compiler.profiles";
+
+	static final String COMPILER_PROFILE_CONCURRENCY = "compiler.profileConcurrency";
+
+	static final String COMPILER_OUTPUT_CACHE = "compiler.outputCache";
+
+	static final String COMPILER_TSC_WATCH_MODE = "compiler.tscWatchMode";
+
+	static final String COMPILER_BUILD_WORKERS = "compiler.buildWorkers";
+
+	static final String COMPILER_BUILD_DEBOUNCE_DELAY = "compiler.buildDebounceDelay";
+
+	static final String COMPILER_BUILD_MAX_STALENESS = "compiler.buildMaxStaleness";
+
+	static final String COMPILER_TRANSPILE_BATCH_SIZE = "compiler.transpileBatchSize";
+
+	static final String COMPILER_TRANSPILE_BATCH_HEAP = "compiler.transpileBatchHeap";
+
+	static final String COMPILER_TRANSPILER_RELEASE = "compiler.transpilerRelease";
 
-	private static final String COMPILER_SOURCE_FOLDERS = "compiler.sourceFolders";
+	static final String COMPILER_TRANSPILER_IDLE_TIMEOUT = "compiler.transpilerIdleTimeout";
 
-	private static final String COMPILER_SOURCE_INCLUDE_FILTER = "compiler.sourceIncludeFilter";
+	static final String COMPILER_SOURCE_FOLDERS = "compiler.sourceFolders";
 
-	private static final String COMPILER_SOURCE_EXCLUDE_FILTER = "compiler.sourceExcludeFilter";
+	static final String COMPILER_SOURCE_INCLUDE_FILTER = "compiler.sourceIncludeFilter";
 
-	private static final String COMPILER_TYPESCRIPT_FOLDER = "compiler.typescriptFolder";
+	static final String COMPILER_SOURCE_EXCLUDE_FILTER = "compiler.sourceExcludeFilter";
 
-	private static final String COMPILER_JAVASCRIPT_FOLDER = "compiler.javascriptFolder";
+	static final String COMPILER_TYPESCRIPT_FOLDER = "compiler.typescriptFolder";
 
-	private static final String COMPILER_CANDY_JS_FOLDER = "compiler.candyJsFolder";
+	static final String COMPILER_JAVASCRIPT_FOLDER = "compiler.javascriptFolder";
 
-	private static final String COMPILER_BUNDLES_DIRECTORY = "compiler.bundlesDirectory";
+	static final String COMPILER_CANDY_JS_FOLDER = "compiler.candyJsFolder";
 
-	private static final String COMPILER_BUNDLE = "compiler.bundle";
+	static final String COMPILER_BUNDLES_DIRECTORY = "compiler.bundlesDirectory";
 
-	private static final String COMPILER_DECLARATION_DIRECTORY = "compiler.declarationDirectory";
+	static final String COMPILER_BUNDLE = "compiler.bundle";
 
-	private static final String COMPILER_DECLARATION = "compiler.declaration";
+	static final String COMPILER_DECLARATION_DIRECTORY = "compiler.declarationDirectory";
 
-	private static final String COMPILER_NO_JS = "compiler.nojs";
+	static final String COMPILER_DECLARATION = "compiler.declaration";
 
-	private static final String COMPILER_DEBUG_MODE = "compiler.debugMode";
+	static final String COMPILER_NO_JS = "compiler.nojs";
 
-	private static final String COMPILER_MODULE_KIND = "compiler.moduleKind";
+	static final String COMPILER_DEBUG_MODE = "compiler.debugMode";
+
+	static final String COMPILER_MODULE_KIND = "compiler.moduleKind";
+
+	// project -> profile -> configuration snapshot
+	private static final Map<IProject, Map<String, ProfileConfig>> profileConfigs = new ConcurrentHashMap<>();
+
+	// project -> project configuration snapshot
+	private static final Map<IProject, ProjectConfig> projectConfigs = new ConcurrentHashMap<>();
+
+	private static boolean listening = false;
+
+	/**
+	 * Gets the configuration of a profile. Configurations are cached per
+	 * project, invalidated when the project or workspace JSweet preferences
+	 * change, and dropped when the project is closed or deleted (its
+	 * preference node is then discarded).
+	 */
+	public static ProfileConfig getProfileConfig(IProject project, String profile) {
+		Map<String, ProfileConfig> configs = getProfileConfigs(project);
+		String key = StringUtils.defaultString(profile);
+		ProfileConfig config = configs.get(key);
+		if (config == null) {
+			final IPreferenceStore projectPreferenceStore = new ProjectPreferenceStore(project);
+			config = ProfileConfig.load(profile, name -> projectPreferenceStore.getString(name));
+			configs.put(key, config);
+		}
+		return config;
+	}
+
+	/**
+	 * Gets the configuration of the preferences that apply to the whole
+	 * project, cached like the profile configurations.
+	 */
+	public static ProjectConfig getProjectConfig(IProject project) {
+		getProfileConfigs(project);
+		ProjectConfig config = projectConfigs.get(project);
+		if (config == null) {
+			final IPreferenceStore projectPreferenceStore = new ProjectPreferenceStore(project);
+			config = ProjectConfig.load(name -> projectPreferenceStore.getString(name));
+			projectConfigs.put(project, config);
+		}
+		return config;
+	}
+
+	private static Map<String, ProfileConfig> getProfileConfigs(final IProject project) {
+		Map<String, ProfileConfig> configs = profileConfigs.get(project);
+		if (configs == null) {
+			listenToChanges();
+			configs = new ConcurrentHashMap<>();
+			Map<String, ProfileConfig> previous = profileConfigs.putIfAbsent(project, configs);
+			if (previous != null) {
+				configs = previous;
+			} else {
+				new ProjectScope(project).getNode(JSweetPlugin.ID)
+						.addPreferenceChangeListener(new IPreferenceChangeListener() {
+							@Override
+							public void preferenceChange(PreferenceChangeEvent event) {
+								invalidateProfileConfigs(project);
+							}
+						});
+			}
+		}
+		return configs;
+	}
+
+	/**
+	 * Discards the cached profile and project configurations of the given
+	 * project.
+	 */
+	public static void invalidateProfileConfigs(IProject project) {
+		Map<String, ProfileConfig> configs = profileConfigs.get(project);
+		if (configs != null) {
+			configs.clear();
+		}
+		projectConfigs.remove(project);
+	}
+
+	private static synchronized void listenToChanges() {
+		if (listening) {
+			return;
+		}
+		IEclipsePreferences instancePreferences = InstanceScope.INSTANCE.getNode(JSweetPlugin.ID);
+		instancePreferences.addPreferenceChangeListener(new IPreferenceChangeListener() {
+			@Override
+			public void preferenceChange(PreferenceChangeEvent event) {
+				for (Map<String, ProfileConfig> configs : profileConfigs.values()) {
+					configs.clear();
+				}
+				projectConfigs.clear();
+			}
+		});
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(new IResourceChangeListener() {
+			@Override
+			public void resourceChanged(IResourceChangeEvent event) {
+				profileConfigs.remove(event.getResource());
+				projectConfigs.remove(event.getResource());
+			}
+		}, IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
+		listening = true;
+	}
 
 	public static String getProfilePrefix(String profile) {
-		return StringUtils.isBlank(profile) || DEFAULT_PROFILE_NAME.equals(profile) ? "" : profile + ".";
+		return ProfileConfig.getProfilePrefix(profile);
 	}
 
 	public static String PROFILES() {
@@ -77,6 +213,67 @@ public class Preferences {
 		return (profiles == null ? "" : profiles).split(";");
 	}
 
+	public static String PROFILE_CONCURRENCY() {
+		return Preferences.COMPILER_PROFILE_CONCURRENCY;
+	}
+
+	public static String OUTPUT_CACHE() {
+		return Preferences.COMPILER_OUTPUT_CACHE;
+	}
+
+	public static String TSC_WATCH_MODE() {
+		return Preferences.COMPILER_TSC_WATCH_MODE;
+	}
+
+	public static String BUILD_WORKERS() {
+		return Preferences.COMPILER_BUILD_WORKERS;
+	}
+
+	/**
+	 * Gets the maximum number of projects built in parallel when rebuilding
+	 * several projects (a workspace preference).
+	 */
+	public static int getBuildWorkers() {
+		return Math.max(1, JSweetPlugin.getDefault().getPreferenceStore().getInt(Preferences.COMPILER_BUILD_WORKERS));
+	}
+
+	public static String BUILD_DEBOUNCE_DELAY() {
+		return Preferences.COMPILER_BUILD_DEBOUNCE_DELAY;
+	}
+
+	public static String BUILD_MAX_STALENESS() {
+		return Preferences.COMPILER_BUILD_MAX_STALENESS;
+	}
+
+	public static String TRANSPILE_BATCH_SIZE() {
+		return Preferences.COMPILER_TRANSPILE_BATCH_SIZE;
+	}
+
+	public static String TRANSPILE_BATCH_HEAP() {
+		return Preferences.COMPILER_TRANSPILE_BATCH_HEAP;
+	}
+
+	public static String TRANSPILER_RELEASE() {
+		return Preferences.COMPILER_TRANSPILER_RELEASE;
+	}
+
+	public static String TRANSPILER_IDLE_TIMEOUT() {
+		return Preferences.COMPILER_TRANSPILER_IDLE_TIMEOUT;
+	}
+
+	/**
+	 * Tells if the given preference applies to the whole project rather than
+	 * to a profile (project preferences are not prefixed by the profile name).
+	 */
+	public static boolean isProjectPreference(String name) {
+		return COMPILER_PROFILES.equals(name) || COMPILER_PROFILE_CONCURRENCY.equals(name)
+				|| COMPILER_OUTPUT_CACHE.equals(name) || COMPILER_TSC_WATCH_MODE.equals(name)
+				|| COMPILER_BUILD_WORKERS.equals(name) || COMPILER_BUILD_DEBOUNCE_DELAY.equals(name)
+				|| COMPILER_BUILD_MAX_STALENESS.equals(name) || COMPILER_TRANSPILE_BATCH_SIZE.equals(name)
+				|| COMPILER_TRANSPILE_BATCH_HEAP.equals(name) || COMPILER_TRANSPILER_RELEASE.equals(name)
+				|| COMPILER_TRANSPILER_IDLE_TIMEOUT.equals(name);
+	}
+
 	public static String SOURCE_FOLDERS(String profile) {
 		return getProfilePrefix(profile) + Preferences.COMPILER_SOURCE_FOLDERS;
 	}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.preferences;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * An immutable snapshot of the compiler preferences of a profile.
+ * <p>
+ * This class does not depend on the Eclipse preference system, so that
+ * snapshots can be loaded from any source of preferences (see
+ * {@link #load(String, Function)}), including outside of Eclipse.
+ */
+public final class ProfileConfig {
+
+	private final String profile;
+	private final String sourceFolders;
+	private final String sourceIncludeFilter;
+	private final String sourceExcludeFilter;
+	private final String tsOutputFolder;
+	private final String jsOutputFolder;
+	private final String candyJsOutputFolder;
+	private final String moduleKind;
+	private final boolean bundle;
+	private final String bundlesDirectory;
+	private final boolean declaration;
+	private final String declarationDirectory;
+	private final String debugMode;
+	private final boolean noJs;
+
+	private static final Map<String, String> DEFAULT_VALUES;
+
+	static {
+		Map<String, String> defaults = new LinkedHashMap<>();
+		defaults.put(Preferences.COMPILER_PROFILES, Preferences.DEFAULT_PROFILE_NAME);
+		defaults.put(Preferences.COMPILER_PROFILE_CONCURRENCY, "1");
+		defaults.put(Preferences.COMPILER_BUILD_WORKERS,
+				String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+		defaults.put(Preferences.COMPILER_BUILD_DEBOUNCE_DELAY, "300");
+		defaults.put(Preferences.COMPILER_BUILD_MAX_STALENESS, "2000");
+		defaults.put(Preferences.COMPILER_TRANSPILE_BATCH_SIZE, "500");
+		defaults.put(Preferences.COMPILER_TRANSPILE_BATCH_HEAP, "512");
+		defaults.put(Preferences.COMPILER_TRANSPILER_RELEASE, Preferences.COMPILER_TRANSPILER_RELEASE_IDLE);
+		defaults.put(Preferences.COMPILER_TRANSPILER_IDLE_TIMEOUT, "10");
+		// opt-in: tsc watch mode does not work (yet?) under Windows
+		defaults.put(Preferences.COMPILER_TSC_WATCH_MODE, "false");
+		defaults.put(Preferences.COMPILER_TYPESCRIPT_FOLDER, ".generated");
+		defaults.put(Preferences.COMPILER_JAVASCRIPT_FOLDER, "js");
+		defaults.put(Preferences.COMPILER_DEBUG_MODE, Preferences.COMPILER_DEBUG_MODE_JAVA);
+		DEFAULT_VALUES = Collections.unmodifiableMap(defaults);
+	}
+
+	private ProfileConfig(String profile, Function<String, String> lookup) {
+		String prefix = getProfilePrefix(profile);
+		this.profile = profile;
+		this.sourceFolders = get(lookup, prefix + Preferences.COMPILER_SOURCE_FOLDERS);
+		this.sourceIncludeFilter = get(lookup, prefix + Preferences.COMPILER_SOURCE_INCLUDE_FILTER);
+		this.sourceExcludeFilter = get(lookup, prefix + Preferences.COMPILER_SOURCE_EXCLUDE_FILTER);
+		this.tsOutputFolder = get(lookup, prefix + Preferences.COMPILER_TYPESCRIPT_FOLDER);
+		this.jsOutputFolder = get(lookup, prefix + Preferences.COMPILER_JAVASCRIPT_FOLDER);
+		this.candyJsOutputFolder = get(lookup, prefix + Preferences.COMPILER_CANDY_JS_FOLDER);
+		this.moduleKind = get(lookup, prefix + Preferences.COMPILER_MODULE_KIND);
+		this.bundle = Boolean.parseBoolean(get(lookup, prefix + Preferences.COMPILER_BUNDLE));
+		this.bundlesDirectory = get(lookup, prefix + Preferences.COMPILER_BUNDLES_DIRECTORY);
+		this.declaration = Boolean.parseBoolean(get(lookup, prefix + Preferences.COMPILER_DECLARATION));
+		this.declarationDirectory = get(lookup, prefix + Preferences.COMPILER_DECLARATION_DIRECTORY);
+		this.debugMode = get(lookup, prefix + Preferences.COMPILER_DEBUG_MODE);
+		this.noJs = Boolean.parseBoolean(get(lookup, prefix + Preferences.COMPILER_NO_JS));
+	}
+
+	private static String get(Function<String, String> lookup, String name) {
+		return StringUtils.defaultString(lookup.apply(name));
+	}
+
+	/**
+	 * Loads the configuration of a profile.
+	 *
+	 * @param profile
+	 *            the profile name
+	 * @param lookup
+	 *            gives the value of a preference from its full (profile
+	 *            prefixed) name, or null if the preference is not set
+	 */
+	public static ProfileConfig load(String profile, Function<String, String> lookup) {
+		return new ProfileConfig(profile, lookup);
+	}
+
+	/**
+	 * Gets the prefix of the preferences of a profile (the default profile
+	 * has no prefix).
+	 */
+	public static String getProfilePrefix(String profile) {
+		return StringUtils.isBlank(profile) || Preferences.DEFAULT_PROFILE_NAME.equals(profile) ? "" : profile + ".";
+	}
+
+	/**
+	 * Gets the default values of the JSweet preferences (preference name
+	 * -&gt; value), which apply when neither the project nor the workspace
+	 * set them.
+	 */
+	public static Map<String, String> getDefaultValues() {
+		return DEFAULT_VALUES;
+	}
+
+	/**
+	 * Gets the profiles of a project.
+	 *
+	 * @param lookup
+	 *            gives the value of a project preference from its name, or
+	 *            null if the preference is not set
+	 */
+	public static String[] getProfiles(Function<String, String> lookup) {
+		String profiles = lookup.apply(Preferences.COMPILER_PROFILES);
+		return (profiles == null ? DEFAULT_VALUES.get(Preferences.COMPILER_PROFILES) : profiles).split(";");
+	}
+
+	public String getProfile() {
+		return profile;
+	}
+
+	public String getSourceFolders() {
+		return sourceFolders;
+	}
+
+	public String getSourceIncludeFilter() {
+		return sourceIncludeFilter;
+	}
+
+	public String getSourceExcludeFilter() {
+		return sourceExcludeFilter;
+	}
+
+	public String getTsOutputFolder() {
+		return tsOutputFolder;
+	}
+
+	public String getJsOutputFolder() {
+		return jsOutputFolder;
+	}
+
+	public String getCandyJsOutputFolder() {
+		return candyJsOutputFolder;
+	}
+
+	public String getModuleKind() {
+		return moduleKind;
+	}
+
+	public boolean getBundle() {
+		return bundle;
+	}
+
+	public String getBundlesDirectory() {
+		return bundlesDirectory;
+	}
+
+	public boolean getDeclaration() {
+		return declaration;
+	}
+
+	public String getDeclarationDirectory() {
+		return declarationDirectory;
+	}
+
+	public String getDebugMode() {
+		return debugMode;
+	}
+
+	public boolean isJavaDebugMode() {
+		return Preferences.COMPILER_DEBUG_MODE_JAVA.equals(debugMode);
+	}
+
+	public boolean getNoJs() {
+		return noJs;
+	}
+
+	private Object[] values() {
+		return new Object[] { sourceFolders, sourceIncludeFilter, sourceExcludeFilter, tsOutputFolder,
+				jsOutputFolder, candyJsOutputFolder, moduleKind, bundle, bundlesDirectory, declaration,
+				declarationDirectory, debugMode, noJs };
+	}
+
+	/**
+	 * Two configurations are equal when they have the same settings, whatever
+	 * their profile.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ProfileConfig)) {
+			return false;
+		}
+		return Arrays.equals(values(), ((ProfileConfig) obj).values());
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(values());
+	}
+
+	/**
+	 * Returns the settings of this configuration, separated by '|'.
+	 */
+	@Override
+	public String toString() {
+		return StringUtils.join(values(), '|');
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.preferences;
+
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * An immutable snapshot of the compiler preferences that apply to a whole
+ * project rather than to a profile (see
+ * {@link Preferences#isProjectPreference(String)}), read once per build.
+ * <p>
+ * Like {@link ProfileConfig}, this class does not depend on the Eclipse
+ * preference system.
+ */
+public final class ProjectConfig {
+
+	private final String[] profiles;
+	private final int profileConcurrency;
+	private final boolean outputCache;
+	private final boolean tscWatchMode;
+	private final int buildDebounceDelay;
+	private final int buildMaxStaleness;
+	private final int transpileBatchSize;
+	private final int transpileBatchHeap;
+	private final String transpilerRelease;
+	private final int transpilerIdleTimeout;
+
+	private ProjectConfig(Function<String, String> lookup) {
+		this.profiles = ProfileConfig.getProfiles(lookup);
+		this.profileConcurrency = Math.max(1, getInt(lookup, Preferences.COMPILER_PROFILE_CONCURRENCY));
+		this.outputCache = Boolean.parseBoolean(lookup.apply(Preferences.COMPILER_OUTPUT_CACHE));
+		this.tscWatchMode = Boolean.parseBoolean(lookup.apply(Preferences.COMPILER_TSC_WATCH_MODE));
+		this.buildDebounceDelay = Math.max(0, getInt(lookup, Preferences.COMPILER_BUILD_DEBOUNCE_DELAY));
+		this.buildMaxStaleness = Math.max(0, getInt(lookup, Preferences.COMPILER_BUILD_MAX_STALENESS));
+		this.transpileBatchSize = getInt(lookup, Preferences.COMPILER_TRANSPILE_BATCH_SIZE);
+		this.transpileBatchHeap = getInt(lookup, Preferences.COMPILER_TRANSPILE_BATCH_HEAP);
+		this.transpilerRelease = StringUtils.defaultString(lookup.apply(Preferences.COMPILER_TRANSPILER_RELEASE));
+		this.transpilerIdleTimeout = Math.max(1, getInt(lookup, Preferences.COMPILER_TRANSPILER_IDLE_TIMEOUT));
+	}
+
+	private static int getInt(Function<String, String> lookup, String name) {
+		return NumberUtils.toInt(StringUtils.trim(lookup.apply(name)));
+	}
+
+	/**
+	 * Loads the configuration of a project.
+	 *
+	 * @param lookup
+	 *            gives the value of a project preference from its name, or
+	 *            null if the preference is not set
+	 */
+	public static ProjectConfig load(Function<String, String> lookup) {
+		return new ProjectConfig(lookup);
+	}
+
+	public String[] getProfiles() {
+		return profiles.clone();
+	}
+
+	/**
+	 * Gets the maximum number of profiles that can be built in parallel (1
+	 * means that profiles are built sequentially).
+	 */
+	public int getProfileConcurrency() {
+		return profileConcurrency;
+	}
+
+	/**
+	 * Tells if the files generated for unchanged Java sources should be
+	 * restored from the workspace output cache instead of being transpiled
+	 * again.
+	 */
+	public boolean isOutputCacheEnabled() {
+		return outputCache;
+	}
+
+	/**
+	 * Tells if the TypeScript compiler should be kept running in watch mode
+	 * between builds, rather than being launched on each build.
+	 */
+	public boolean isTscWatchModeEnabled() {
+		return tscWatchMode;
+	}
+
+	/**
+	 * Gets the time (in milliseconds) without changes to wait for before
+	 * building after an auto-build request (0 builds right away).
+	 */
+	public int getBuildDebounceDelay() {
+		return buildDebounceDelay;
+	}
+
+	/**
+	 * Gets the maximum time (in milliseconds) an auto-build request can be
+	 * delayed by the following ones.
+	 */
+	public int getBuildMaxStaleness() {
+		return buildMaxStaleness;
+	}
+
+	/**
+	 * Gets the maximum number of files transpiled at once (0 for no limit).
+	 */
+	public int getTranspileBatchSize() {
+		return transpileBatchSize;
+	}
+
+	/**
+	 * Gets the estimated heap (in MB) the files transpiled at once may use (0
+	 * for no limit).
+	 */
+	public int getTranspileBatchHeap() {
+		return transpileBatchHeap;
+	}
+
+	/**
+	 * Tells when the transpilers of the project are dropped after a build
+	 * (see {@link Preferences#COMPILER_TRANSPILER_RELEASE_KEEP},
+	 * {@link Preferences#COMPILER_TRANSPILER_RELEASE_IDLE} and
+	 * {@link Preferences#COMPILER_TRANSPILER_RELEASE_ALWAYS}).
+	 */
+	public String getTranspilerRelease() {
+		return transpilerRelease;
+	}
+
+	/**
+	 * Gets the time (in minutes) without builds after which the transpilers
+	 * of an idle project are dropped.
+	 */
+	public int getTranspilerIdleTimeout() {
+		return transpilerIdleTimeout;
+	}
+
+	/**
+	 * Returns the settings of this configuration, separated by '|'.
+	 */
+	@Override
+	public String toString() {
+		return StringUtils.join(new Object[] { StringUtils.join(profiles, ';'), profileConcurrency, outputCache,
+				tscWatchMode, buildDebounceDelay, buildMaxStaleness, transpileBatchSize, transpileBatchHeap,
+				transpilerRelease, transpilerIdleTimeout }, '|');
+	}
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015 CINCHEO SAS <renaud.pawlak@cincheo.fr>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jsweet.plugin.views;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TreeViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Tree;
+import org.eclipse.swt.widgets.TreeColumn;
+import org.eclipse.ui.ISharedImages;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.part.ViewPart;
+import org.jsweet.plugin.Log;
+import org.jsweet.plugin.builder.BuildMetrics;
+import org.jsweet.plugin.builder.BuildMetrics.BuildRecord;
+import org.jsweet.plugin.builder.BuildMetrics.FileMetrics;
+import org.jsweet.plugin.builder.BuildMetrics.Phase;
+import org.jsweet.plugin.builder.BuildMetrics.PhaseMetrics;
+
+/**
+ * Shows the metrics of the last JSweet builds (see {@link BuildMetrics}),
+ * most recent first.
+ */
+public class BuildMetricsView extends ViewPart {
+
+	public static final String ID = "org.jsweet.plugin.views.BuildMetricsView";
+
+	private static final String[] COLUMNS = { "Build / phase / file", "Time (ms)", "Allocated (KB)", "Files" };
+
+	private static final int[] COLUMN_WIDTHS = { 360, 90, 110, 70 };
+
+	private TreeViewer viewer;
+
+	private Display display;
+
+	// called by the building threads
+	private final Runnable listener = new Runnable() {
+		@Override
+		public void run() {
+			if (!display.isDisposed()) {
+				display.asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						if (!viewer.getControl().isDisposed()) {
+							viewer.setInput(BuildMetrics.getDefault());
+						}
+					}
+				});
+			}
+		}
+	};
+
+	private static class PhaseNode {
+		final Phase phase;
+		final PhaseMetrics metrics;
+
+		PhaseNode(Phase phase, PhaseMetrics metrics) {
+			this.phase = phase;
+			this.metrics = metrics;
+		}
+	}
+
+	private static class SlowestFilesNode {
+		final List<FileMetrics> files;
+
+		SlowestFilesNode(List<FileMetrics> files) {
+			this.files = files;
+		}
+	}
+
+	private static class ContentProvider implements ITreeContentProvider {
+		@Override
+		public Object[] getElements(Object inputElement) {
+			List<BuildRecord> records = BuildMetrics.getDefault().getRecords();
+			Collections.reverse(records);
+			return records.toArray();
+		}
+
+		@Override
+		public Object[] getChildren(Object parentElement) {
+			if (parentElement instanceof BuildRecord) {
+				BuildRecord record = (BuildRecord) parentElement;
+				List<Object> children = new ArrayList<>();
+				for (Map.Entry<Phase, PhaseMetrics> entry : record.getPhases().entrySet()) {
+					children.add(new PhaseNode(entry.getKey(), entry.getValue()));
+				}
+				List<FileMetrics> files = record.getSlowestFiles();
+				if (!files.isEmpty()) {
+					children.add(new SlowestFilesNode(files));
+				}
+				return children.toArray();
+			}
+			if (parentElement instanceof SlowestFilesNode) {
+				return ((SlowestFilesNode) parentElement).files.toArray();
+			}
+			return new Object[0];
+		}
+
+		@Override
+		public Object getParent(Object element) {
+			return null;
+		}
+
+		@Override
+		public boolean hasChildren(Object element) {
+			return element instanceof BuildRecord || element instanceof SlowestFilesNode;
+		}
+
+		@Override
+		public void dispose() {
+		}
+
+		@Override
+		public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		}
+	}
+
+	private static class MetricsLabelProvider extends LabelProvider implements ITableLabelProvider {
+		private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+
+		@Override
+		public Image getColumnImage(Object element, int columnIndex) {
+			return null;
+		}
+
+		@Override
+		public String getColumnText(Object element, int columnIndex) {
+			if (element instanceof BuildRecord) {
+				BuildRecord record = (BuildRecord) element;
+				switch (columnIndex) {
+				case 0:
+					return timeFormat.format(new Date(record.startTime)) + " " + record.project + " ["
+							+ (record.profile == null ? "all profiles" : record.profile) + "] " + record.getKind();
+				case 1:
+					return toMillis(record.getTotalNanos());
+				default:
+					return "";
+				}
+			}
+			if (element instanceof PhaseNode) {
+				PhaseNode node = (PhaseNode) element;
+				switch (columnIndex) {
+				case 0:
+					return node.phase.label;
+				case 1:
+					return toMillis(node.metrics.getNanos());
+				case 2:
+					long allocatedBytes = node.metrics.getAllocatedBytes();
+					return allocatedBytes < 0 ? "" : String.valueOf(allocatedBytes / 1024);
+				default:
+					return String.valueOf(node.metrics.getFileCount());
+				}
+			}
+			if (element instanceof SlowestFilesNode) {
+				return columnIndex == 0 ? "slowest files" : "";
+			}
+			if (element instanceof FileMetrics) {
+				FileMetrics file = (FileMetrics) element;
+				switch (columnIndex) {
+				case 0:
+					return new File(file.path).getName() + " (" + file.phase.label + ") - " + file.path;
+				case 1:
+					return toMillis(file.nanos);
+				default:
+					return "";
+				}
+			}
+			return "";
+		}
+
+		private static String toMillis(long nanos) {
+			return nanos < 0 ? "" : String.format("%.1f", nanos / 1000000.0);
+		}
+	}
+
+	@Override
+	public void createPartControl(Composite parent) {
+		viewer = new TreeViewer(parent, SWT.MULTI | SWT.H_SCROLL | SWT.V_SCROLL | SWT.FULL_SELECTION);
+		Tree tree = viewer.getTree();
+		tree.setHeaderVisible(true);
+		tree.setLinesVisible(true);
+		for (int i = 0; i < COLUMNS.length; i++) {
+			TreeColumn column = new TreeColumn(tree, i == 0 ? SWT.LEFT : SWT.RIGHT);
+			column.setText(COLUMNS[i]);
+			column.setWidth(COLUMN_WIDTHS[i]);
+		}
+		viewer.setContentProvider(new ContentProvider());
+		viewer.setLabelProvider(new MetricsLabelProvider());
+		viewer.setInput(BuildMetrics.getDefault());
+		display = parent.getDisplay();
+		BuildMetrics.getDefault().addListener(listener);
+		createActions();
+	}
+
+	private void createActions() {
+		ISharedImages images = PlatformUI.getWorkbench().getSharedImages();
+		Action export = new Action("Export as JSON...") {
+			@Override
+			public void run() {
+				FileDialog dialog = new FileDialog(getSite().getShell(), SWT.SAVE);
+				dialog.setFilterExtensions(new String[] { "*.json" });
+				dialog.setFileName("jsweet-build-metrics.json");
+				dialog.setOverwrite(true);
+				String path = dialog.open();
+				if (path != null) {
+					try {
+						BuildMetrics.getDefault().exportJson(new File(path));
+					} catch (IOException e) {
+						Log.error("cannot export build metrics", e);
+						MessageDialog.openError(getSite().getShell(), "JSweet",
+								"Cannot export build metrics: " + e.getMessage());
+					}
+				}
+			}
+		};
+		export.setImageDescriptor(images.getImageDescriptor(ISharedImages.IMG_ETOOL_SAVEAS_EDIT));
+		Action clear = new Action("Clear") {
+			@Override
+			public void run() {
+				BuildMetrics.getDefault().clear();
+			}
+		};
+		clear.setImageDescriptor(images.getImageDescriptor(ISharedImages.IMG_ETOOL_CLEAR));
+		IToolBarManager toolBar = getViewSite().getActionBars().getToolBarManager();
+		toolBar.add(export);
+		toolBar.add(clear);
+	}
+
+	@Override
+	public void setFocus() {
+		viewer.getControl().setFocus();
+	}
+
+	@Override
+	public void dispose() {
+		BuildMetrics.getDefault().removeListener(listener);
+		super.dispose();
+	}
+
+}